@@ -0,0 +1,108 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro.benchmark;
+
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import com.maxpoint.cascading.avro.AvroScheme;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.mapred.AvroWrapper;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.hadoop.io.NullWritable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures records per second through {@link AvroScheme#source} and {@link AvroScheme#sink}. Both include Avro binary
+ * decoding or encoding of the record, the same work a task does per record apart from block compression and I/O.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AvroSchemeBenchmark {
+    @Param({"narrow", "wide", "nullable", "bytes"})
+    public String shape;
+
+    @Param({"false", "true"})
+    public boolean reuseTuples;
+
+    private AvroScheme scheme;
+    private byte[][] encoded;
+    private SpecificDatumReader<IndexedRecord> reader;
+    private BinaryDecoder decoder;
+    private AvroWrapper<IndexedRecord> wrapper;
+    private TupleEntry[] entries;
+    private BenchmarkData.EncodingCollector collector;
+
+    @Setup
+    public void setup() throws IOException {
+        final Schema schema = BenchmarkData.schema(shape);
+        scheme = new AvroScheme(schema);
+        scheme.setReuseTuples(reuseTuples);
+
+        final List<IndexedRecord> records = BenchmarkData.records(schema);
+        encoded = BenchmarkData.encode(schema, records);
+        reader = new SpecificDatumReader<IndexedRecord>(schema);
+        wrapper = new AvroWrapper<IndexedRecord>(null);
+
+        final List<Tuple> tuples = BenchmarkData.tuples(schema, records);
+        entries = new TupleEntry[tuples.size()];
+        for(int i = 0; i < entries.length; i++) {
+            entries[i] = new TupleEntry(scheme.getSinkFields(), tuples.get(i));
+        }
+        collector = new BenchmarkData.EncodingCollector(schema);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkData.RECORDS)
+    public void source(Blackhole blackhole) throws IOException {
+        for(byte[] record : encoded) {
+            // the record reader passes the previous record back to the datum reader
+            decoder = DecoderFactory.get().binaryDecoder(record, decoder);
+            wrapper.datum(reader.read(wrapper.datum(), decoder));
+            blackhole.consume(scheme.source(wrapper, NullWritable.get()));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkData.RECORDS)
+    public void sink() throws IOException {
+        for(TupleEntry entry : entries) {
+            scheme.sink(entry, collector);
+        }
+    }
+}
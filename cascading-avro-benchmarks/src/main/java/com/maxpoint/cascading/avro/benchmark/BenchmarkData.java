@@ -0,0 +1,170 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro.benchmark;
+
+import cascading.tuple.Tuple;
+import com.maxpoint.cascading.avro.AvroScheme;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.mapred.AvroWrapper;
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.OutputCollector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic data for benchmarks, generated from the schemas in this package:
+ * <ul>
+ *     <li>narrow - a few primitive fields</li>
+ *     <li>wide - 80 primitive fields, every fourth one nullable</li>
+ *     <li>nullable - nullable fields only, about half of the values are null</li>
+ *     <li>bytes - large bytes and fixed fields</li>
+ * </ul>
+ */
+final class BenchmarkData {
+    static final int RECORDS = 1024;
+
+    private BenchmarkData() {}
+
+    static Schema schema(String shape) throws IOException {
+        final Schema.Parser parser = new Schema.Parser();
+        return parser.parse(BenchmarkData.class.getResourceAsStream(shape + ".avsc"));
+    }
+
+    static List<IndexedRecord> records(Schema schema) {
+        final Random random = new Random(42);
+        final List<IndexedRecord> result = new ArrayList<IndexedRecord>(RECORDS);
+        for(int i = 0; i < RECORDS; i++) {
+            final GenericData.Record record = new GenericData.Record(schema);
+            for(Schema.Field field : schema.getFields()) {
+                record.put(field.pos(), value(field.schema(), random));
+            }
+            result.add(record);
+        }
+        return result;
+    }
+
+    private static Object value(Schema schema, Random random) {
+        switch(schema.getType()) {
+            case UNION:
+                final Schema type = schema.getTypes().get(0);
+                return random.nextBoolean() ? null : value(type, random);
+            case BOOLEAN:
+                return random.nextBoolean();
+            case INT:
+                return random.nextInt(100000);
+            case LONG:
+                return random.nextLong();
+            case FLOAT:
+                return random.nextFloat();
+            case DOUBLE:
+                return random.nextDouble();
+            case STRING:
+                return new Utf8(string(random));
+            case BYTES:
+                return ByteBuffer.wrap(bytes(random, 2048 + random.nextInt(8192)));
+            case FIXED:
+                return new GenericData.Fixed(schema, bytes(random, schema.getFixedSize()));
+            case NULL:
+                return null;
+        }
+        throw new IllegalArgumentException("Can't generate " + schema);
+    }
+
+    private static String string(Random random) {
+        final char[] chars = new char[5 + random.nextInt(20)];
+        for(int i = 0; i < chars.length; i++) {
+            chars[i] = (char)('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    private static byte[] bytes(Random random, int length) {
+        final byte[] result = new byte[length];
+        random.nextBytes(result);
+        return result;
+    }
+
+    /**
+     * Encodes records the same way they are stored in data file blocks
+     */
+    static byte[][] encode(Schema schema, List<IndexedRecord> records) throws IOException {
+        final GenericDatumWriter<IndexedRecord> writer = new GenericDatumWriter<IndexedRecord>(schema);
+        final byte[][] result = new byte[records.size()][];
+        BinaryEncoder encoder = null;
+        for(int i = 0; i < result.length; i++) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            encoder = EncoderFactory.get().binaryEncoder(bytes, encoder);
+            writer.write(records.get(i), encoder);
+            encoder.flush();
+            result[i] = bytes.toByteArray();
+        }
+        return result;
+    }
+
+    /**
+     * Converts records to tuples using the generic conversion of the scheme
+     */
+    static List<Tuple> tuples(Schema schema, List<IndexedRecord> records) {
+        final AvroScheme scheme = new AvroScheme(schema);
+        final List<Tuple> result = new ArrayList<Tuple>(records.size());
+        for(IndexedRecord record : records) {
+            result.add(scheme.source(new AvroWrapper<IndexedRecord>(record), NullWritable.get()));
+        }
+        return result;
+    }
+
+    /**
+     * Encodes sunk records, the same way AvroOutputFormat does, into a reused buffer
+     */
+    static final class EncodingCollector implements OutputCollector<AvroWrapper<IndexedRecord>, NullWritable> {
+        private final GenericDatumWriter<IndexedRecord> writer;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private BinaryEncoder encoder;
+
+        EncodingCollector(Schema schema) {
+            writer = new GenericDatumWriter<IndexedRecord>(schema);
+        }
+
+        public void collect(AvroWrapper<IndexedRecord> key, NullWritable value) throws IOException {
+            bytes.reset();
+            encoder = EncoderFactory.get().binaryEncoder(bytes, encoder);
+            writer.write(key.datum(), encoder);
+            encoder.flush();
+        }
+    }
+
+    /**
+     * Discards collected values, used to measure conversion only
+     */
+    static final class DiscardCollector implements OutputCollector<Object, Object> {
+        Object last;
+
+        public void collect(Object key, Object value) {
+            last = value;
+        }
+    }
+}
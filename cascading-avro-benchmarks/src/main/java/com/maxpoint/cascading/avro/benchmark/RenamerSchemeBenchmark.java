@@ -0,0 +1,100 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro.benchmark;
+
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import com.maxpoint.cascading.avro.AvroScheme;
+import com.maxpoint.cascading.avro.RenamerScheme;
+import org.apache.avro.Schema;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures overhead of {@link RenamerScheme#sink} over sinking directly into the wrapped {@link AvroScheme}. Sunk
+ * records are not encoded, so the difference between the two benchmarks is the cost of renaming.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RenamerSchemeBenchmark {
+    @Param({"narrow", "wide", "nullable", "bytes"})
+    public String shape;
+
+    private AvroScheme scheme;
+    private RenamerScheme renamer;
+    private TupleEntry[] entries;
+    private TupleEntry[] renamedEntries;
+    private BenchmarkData.DiscardCollector collector;
+
+    @Setup
+    public void setup() throws IOException {
+        final Schema schema = BenchmarkData.schema(shape);
+        scheme = new AvroScheme(schema);
+
+        // Cascalog style field names
+        final Fields fields = scheme.getSinkFields();
+        final Comparable[] renamed = new Comparable[fields.size()];
+        for(int i = 0; i < renamed.length; i++) {
+            renamed[i] = "?" + fields.get(i);
+        }
+        final Fields from = new Fields(renamed);
+        renamer = new RenamerScheme(scheme, from, fields);
+
+        final List<Tuple> tuples = BenchmarkData.tuples(schema, BenchmarkData.records(schema));
+        entries = new TupleEntry[tuples.size()];
+        renamedEntries = new TupleEntry[tuples.size()];
+        for(int i = 0; i < entries.length; i++) {
+            entries[i] = new TupleEntry(fields, tuples.get(i));
+            renamedEntries[i] = new TupleEntry(from, tuples.get(i));
+        }
+        collector = new BenchmarkData.DiscardCollector();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkData.RECORDS)
+    public void direct() throws IOException {
+        for(TupleEntry entry : entries) {
+            scheme.sink(entry, collector);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkData.RECORDS)
+    public void renamed() throws IOException {
+        for(TupleEntry entry : renamedEntries) {
+            renamer.sink(entry, collector);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro.benchmark;
+
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import com.maxpoint.cascading.avro.TextScheme;
+import org.apache.avro.Schema;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures lines per second parsed by {@link TextScheme#source} and formatted by {@link TextScheme#sink}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TextSchemeBenchmark {
+    // bytes fields are not supported by TextScheme
+    @Param({"narrow", "wide", "nullable"})
+    public String shape;
+
+    /** Enables the single pass parser and the buffer formatter */
+    @Param({"false", "true"})
+    public boolean fast;
+
+    private TextScheme scheme;
+    private LongWritable offset;
+    private Text[] lines;
+    private TupleEntry[] entries;
+    private BenchmarkData.DiscardCollector collector;
+
+    @SuppressWarnings("unchecked")
+    @Setup
+    public void setup() throws IOException {
+        final Schema schema = BenchmarkData.schema(shape);
+        scheme = new TextScheme(schema);
+        scheme.setFastParsing(fast);
+        scheme.setFastFormatting(fast);
+
+        final List<Tuple> tuples = BenchmarkData.tuples(schema, BenchmarkData.records(schema));
+        entries = new TupleEntry[tuples.size()];
+        lines = new Text[tuples.size()];
+        for(int i = 0; i < entries.length; i++) {
+            entries[i] = new TupleEntry(scheme.getSinkFields(), tuples.get(i));
+            final int index = i;
+            scheme.sink(entries[i], new OutputCollector<Object, Text>() {
+                public void collect(Object key, Text value) {
+                    lines[index] = new Text(value);
+                }
+            });
+        }
+        offset = new LongWritable(0);
+        collector = new BenchmarkData.DiscardCollector();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkData.RECORDS)
+    public void parse(Blackhole blackhole) {
+        for(Text line : lines) {
+            blackhole.consume(scheme.source(offset, line));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkData.RECORDS)
+    public void format(Blackhole blackhole) throws IOException {
+        for(TupleEntry entry : entries) {
+            scheme.sink(entry, collector);
+            blackhole.consume(collector.last);
+        }
+    }
+}
@@ -23,11 +23,17 @@ import org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader;
 import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
+import java.util.EnumSet;
+import java.util.List;
 
 /**
  * Class CascadingFieldsGenerator
  */
 public class CascadingFieldsGenerator {
+    private static final EnumSet<Schema.Type> CONVERTER_TYPES = EnumSet.of(Schema.Type.BOOLEAN, Schema.Type.BYTES,
+            Schema.Type.DOUBLE, Schema.Type.FIXED, Schema.Type.FLOAT, Schema.Type.INT, Schema.Type.LONG,
+            Schema.Type.NULL, Schema.Type.STRING);
+
     private final VelocityEngine engine;
     private final String path = '/' + getClass().getPackage().getName().replace('.', '/') + '/';
 
@@ -40,19 +46,75 @@ public class CascadingFieldsGenerator {
     }
 
     public void generate(Schema schema, Writer output) throws IOException {
+        merge("fields.vm", schema, output);
+    }
+
+    /**
+     * Generates a converter between tuples and records of the schema
+     */
+    public void generateConverter(Schema schema, Writer output) throws IOException {
+        merge("converter.vm", schema, output);
+    }
+
+    private void merge(String template, Schema schema, Writer output) {
         final VelocityContext context = new VelocityContext();
         context.put("schema", schema);
         context.put("this", this);
 
-        engine.mergeTemplate(path + "fields.vm", "UTF-8", context, output);
+        engine.mergeTemplate(path + template, "UTF-8", context, output);
     }
 
     public String fieldsClassName(String name) {
         return name + "Fields";
     }
 
+    public String converterClassName(String name) {
+        return name + "Converter";
+    }
+
+    /**
+     * Returns lower case name of the field type, resolving nullable unions to the non-null type
+     */
+    public String kind(Schema.Field field) {
+        Schema schema = field.schema();
+        if(schema.getType() == Schema.Type.UNION) {
+            final List<Schema> components = schema.getTypes();
+            if(components.size() == 2 && components.get(0).getType() == Schema.Type.NULL) {
+                schema = components.get(1);
+            } else if(components.size() == 2 && components.get(1).getType() == Schema.Type.NULL) {
+                schema = components.get(0);
+            } else {
+                throw new IllegalArgumentException("Can't generate converter for " + field.name() + " of type " + schema);
+            }
+        }
+        if(!CONVERTER_TYPES.contains(schema.getType())) {
+            throw new IllegalArgumentException("Can't generate converter for " + field.name() + " of type " + schema.getType());
+        }
+        return schema.getType().getName();
+    }
+
+    public boolean isNullable(Schema.Field field) {
+        final Schema.Type type = field.schema().getType();
+        return type == Schema.Type.UNION || type == Schema.Type.NULL;
+    }
+
+    /**
+     * Escapes value to be used inside a java string literal
+     */
+    public String javaString(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
     public File getDestination(Schema schema, File outputDirectory) {
-        final String classFile = fieldsClassName(schema.getName()) + ".java";
+        return destination(fieldsClassName(schema.getName()), schema, outputDirectory);
+    }
+
+    public File getConverterDestination(Schema schema, File outputDirectory) {
+        return destination(converterClassName(schema.getName()), schema, outputDirectory);
+    }
+
+    private File destination(String className, Schema schema, File outputDirectory) {
+        final String classFile = className + ".java";
         final String packageDir;
         if(schema.getNamespace() == null) {
             packageDir = "";
@@ -88,6 +88,14 @@ public class CascadingFieldsMojo extends AbstractAvroMojo {
      */
     private String[] testIncludes = new String[] { "**/*.avsc" };
 
+    /**
+     * Also generate a converter class between tuples and records for each schema, to be used with
+     * <code>AvroScheme.setConverter</code>. The class is named by appending the word "Converter" to the record name.
+     *
+     * @parameter expression="${converters}" default-value="false"
+     */
+    private boolean converters;
+
     private final CascadingFieldsGenerator generator;
 
     public CascadingFieldsMojo() {
@@ -140,12 +148,21 @@ public class CascadingFieldsMojo extends AbstractAvroMojo {
         final Schema.Parser parser = new Schema.Parser();
         final Schema schema = parser.parse(src);
 
-        final File dest = generator.getDestination(schema, outputDirectory);
+        write(schema, generator.getDestination(schema, outputDirectory), false);
+        if(converters) {
+            write(schema, generator.getConverterDestination(schema, outputDirectory), true);
+        }
+    }
 
+    private void write(Schema schema, File dest, boolean converter) throws IOException {
         final FileWriter output = new FileWriter(dest);
         boolean success = false;
         try {
-            generator.generate(schema, output);
+            if(converter) {
+                generator.generateConverter(schema, output);
+            } else {
+                generator.generate(schema, output);
+            }
             success = true;
         } finally {
             try { output.close(); } catch(IOException ioe) { /* ignore */ }
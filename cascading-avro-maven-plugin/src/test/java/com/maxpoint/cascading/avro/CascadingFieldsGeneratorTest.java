@@ -46,6 +46,21 @@ public class CascadingFieldsGeneratorTest {
         assertEquals(expected, actual);
     }
 
+    @Test
+    public void testGenerateConverter() throws Exception {
+        final CascadingFieldsGenerator gen = new CascadingFieldsGenerator();
+        final Schema schema = getSchema();
+
+        final Writer writer = new StringWriter();
+        gen.generateConverter(schema, writer);
+        writer.close();
+
+        final String actual = writer.toString();
+        final String expected = Resources.toString(getClass().getResource("expectedConverter.txt"), Charsets.UTF_8);
+
+        assertEquals(expected, actual);
+    }
+
     @Test
     public void testDestFile() throws Exception {
         final CascadingFieldsGenerator gen = new CascadingFieldsGenerator();
@@ -55,6 +70,15 @@ public class CascadingFieldsGeneratorTest {
         assertEquals(new File("/tmp/com/maxpoint/cascading/avro/Test1Fields.java"), actual);
     }
 
+    @Test
+    public void testConverterDestFile() throws Exception {
+        final CascadingFieldsGenerator gen = new CascadingFieldsGenerator();
+        final Schema schema = getSchema();
+
+        final File actual = gen.getConverterDestination(schema, new File("/tmp"));
+        assertEquals(new File("/tmp/com/maxpoint/cascading/avro/Test1Converter.java"), actual);
+    }
+
     private Schema getSchema() throws IOException {
         final Schema.Parser parser = new Schema.Parser();
         return parser.parse(getClass().getResourceAsStream("test1.avsc"));
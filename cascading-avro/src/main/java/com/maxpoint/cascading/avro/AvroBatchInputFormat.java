@@ -0,0 +1,133 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.mapred.AvroWrapper;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+
+/**
+ * Input format used by {@link AvroBatchScheme}, reads up to {@value #BATCH_SIZE} records of another input format per
+ * call. Records are read into a fixed set of wrappers, so the wrapped reader keeps reusing the same record instances.
+ */
+public class AvroBatchInputFormat implements InputFormat<AvroBatchInputFormat.RecordBatch, NullWritable> {
+    static final String INPUT_FORMAT = "cascading.avro.batch.input.format";
+    static final String BATCH_SIZE = "cascading.avro.source.batch.size";
+
+    /**
+     * Wraps the input format set in the job
+     */
+    static void install(JobConf conf, int batchSize) {
+        final Class<? extends InputFormat> inputFormat = conf.getInputFormat().getClass();
+        if(inputFormat != AvroBatchInputFormat.class) {
+            conf.setClass(INPUT_FORMAT, inputFormat, InputFormat.class);
+            conf.setInputFormat(AvroBatchInputFormat.class);
+        }
+        if(conf.get(BATCH_SIZE) == null) {
+            conf.setInt(BATCH_SIZE, batchSize);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private InputFormat<AvroWrapper<IndexedRecord>, NullWritable> inputFormat(JobConf job) {
+        final Class<? extends InputFormat> inputFormat = job.getClass(INPUT_FORMAT, null, InputFormat.class);
+        if(inputFormat == null) {
+            throw new IllegalStateException("Missing " + INPUT_FORMAT + " in job configuration");
+        }
+        return ReflectionUtils.newInstance(inputFormat, job);
+    }
+
+    public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
+        return inputFormat(job).getSplits(job, numSplits);
+    }
+
+    public RecordReader<RecordBatch, NullWritable> getRecordReader(InputSplit split, JobConf job,
+                                                                   Reporter reporter) throws IOException {
+        final int batchSize = job.getInt(BATCH_SIZE, 0);
+        if(batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive, found " + batchSize);
+        }
+        return new BatchRecordReader(inputFormat(job).getRecordReader(split, job, reporter), batchSize);
+    }
+
+    /**
+     * Records read by one call of the record reader, only the first {@code size} wrappers hold records of the batch
+     */
+    public static final class RecordBatch {
+        final AvroWrapper<IndexedRecord>[] records;
+        int size;
+
+        @SuppressWarnings("unchecked")
+        private RecordBatch(int capacity) {
+            records = new AvroWrapper[capacity];
+        }
+    }
+
+    private static final class BatchRecordReader implements RecordReader<RecordBatch, NullWritable> {
+        private final RecordReader<AvroWrapper<IndexedRecord>, NullWritable> reader;
+        private final int batchSize;
+        private final NullWritable value = NullWritable.get();
+
+        private BatchRecordReader(RecordReader<AvroWrapper<IndexedRecord>, NullWritable> reader, int batchSize) {
+            this.reader = reader;
+            this.batchSize = batchSize;
+        }
+
+        public boolean next(RecordBatch batch, NullWritable ignore) throws IOException {
+            batch.size = 0;
+            while(batch.size < batch.records.length) {
+                AvroWrapper<IndexedRecord> wrapper = batch.records[batch.size];
+                if(wrapper == null) {
+                    wrapper = reader.createKey();
+                    batch.records[batch.size] = wrapper;
+                }
+                if(!reader.next(wrapper, value)) {
+                    break;
+                }
+                batch.size++;
+            }
+            return batch.size > 0;
+        }
+
+        public RecordBatch createKey() {
+            return new RecordBatch(batchSize);
+        }
+
+        public NullWritable createValue() {
+            return value;
+        }
+
+        public long getPos() throws IOException {
+            return reader.getPos();
+        }
+
+        public float getProgress() throws IOException {
+            return reader.getProgress();
+        }
+
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import org.apache.avro.Schema;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+
+import java.io.IOException;
+
+/**
+ * Adapts records sourced by an {@link AvroScheme} to columns. Every sourced tuple holds a single {@link ColumnBatch}
+ * in the {@link #BATCH} field, with the values of up to {@code batchSize} records stored per field in primitive arrays,
+ * so operations like counts and sums can run without a tuple of boxed values per record:
+ * <pre>
+ * final ColumnBatch batch = (ColumnBatch)arguments.getObject(0);
+ * final long[] values = batch.getLongs(batch.getColumn("aLong"));
+ * for(int i = 0; i &lt; batch.size(); i++) {
+ *     sum += values[i];
+ * }
+ * </pre>
+ * Records are still decoded one at a time by the reader of the wrapped scheme and then copied into the columns, the
+ * batch only saves the tuple per record. Projection, predicates and partitions of the wrapped scheme apply as usual.
+ * Sourced fields may be booleans, numbers or strings. The batch size can be overridden per flow with
+ * {@value AvroBatchInputFormat#BATCH_SIZE}.
+ * <p>
+ * The scheme can't be used as a sink, taps reject it when they are initialized.
+ */
+@SuppressWarnings("deprecation")
+public class AvroBatchScheme extends AvroSchemeBase {
+    public static final Fields BATCH = new Fields("batch");
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private final AvroScheme scheme;
+    private final int batchSize;
+    private transient ColumnBatch batch;
+    private transient Tuple tuple;
+
+    public AvroBatchScheme(AvroScheme scheme) {
+        this(scheme, DEFAULT_BATCH_SIZE);
+    }
+
+    public AvroBatchScheme(AvroScheme scheme, int batchSize) {
+        if(batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive, found " + batchSize);
+        }
+        this.scheme = scheme;
+        this.batchSize = batchSize;
+        // fail early on fields that can't be stored in columns
+        new ColumnBatch(scheme.getSourceFields(), fieldTypes(), 0);
+        setSourceFields(BATCH);
+    }
+
+    public AvroScheme getScheme() {
+        return scheme;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Returns types of the sourced fields, fields only read by the predicate don't get a column
+     */
+    private FieldType[] fieldTypes() {
+        final FieldType[] types = scheme.getSourceFieldTypes();
+        for(FieldType type : types) {
+            if(type.type == Schema.Type.BYTES || type.type == Schema.Type.FIXED) {
+                throw new IllegalArgumentException("Can't read fields of type " + type.type + " in batches");
+            }
+        }
+        return types;
+    }
+
+    @Override
+    public void sourceInit(Tap tap, JobConf conf) throws IOException {
+        scheme.sourceInit(tap, conf);
+        AvroBatchInputFormat.install(conf, batchSize);
+    }
+
+    @Override
+    public boolean isSymmetrical() {
+        return false;
+    }
+
+    @Override
+    public void sinkInit(Tap tap, JobConf conf) throws IOException {
+        throw new IllegalArgumentException("Can't use " + getClass().getSimpleName() + " as a sink of " + tap);
+    }
+
+    @Override
+    public Tuple source(Object key, Object value) {
+        final AvroBatchInputFormat.RecordBatch records = (AvroBatchInputFormat.RecordBatch)key;
+        if(batch == null || batch.capacity() != records.records.length) {
+            batch = new ColumnBatch(scheme.getSourceFields(), fieldTypes(), records.records.length);
+            tuple = Tuple.size(1);
+            tuple.set(0, batch);
+        }
+        batch.clear();
+        for(int i = 0; i < records.size; i++) {
+            batch.add(records.records[i].datum());
+        }
+        return tuple;
+    }
+
+    @Override
+    public void sink(TupleEntry tupleEntry, OutputCollector outputCollector) throws IOException {
+        // sinkInit rejects every tap, so no tuples reach the sink
+    }
+}
@@ -0,0 +1,90 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.mapred.AvroOutputFormat;
+import org.apache.avro.mapred.AvroWrapper;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.lib.CombineFileInputFormat;
+import org.apache.hadoop.mapred.lib.CombineFileRecordReader;
+import org.apache.hadoop.mapred.lib.CombineFileSplit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Input format used by {@link AvroScheme} to pack many small Avro files into splits of up to
+ * {@value #MAX_SPLIT_SIZE} bytes. Files are grouped by node and then by rack to keep reads local. Each file is still
+ * read with its own writer schema, resolved against the reader schema of the scheme. Resolvers are shared by files
+ * written with the same schema.
+ */
+public class AvroCombineInputFormat extends CombineFileInputFormat<AvroWrapper<IndexedRecord>, NullWritable> {
+    public static final String MAX_SPLIT_SIZE = "cascading.avro.source.combine.max.size";
+
+    @Override
+    public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
+        setMaxSplitSize(job.getLong(MAX_SPLIT_SIZE, 0));
+        return super.getSplits(job, numSplits);
+    }
+
+    @Override
+    protected FileStatus[] listStatus(JobConf job) throws IOException {
+        final FileStatus[] partitioned = Partitions.listStatus(job);
+        if(partitioned != null) {
+            return partitioned;
+        }
+
+        // same as AvroInputFormat, only read files with Avro extension
+        final List<FileStatus> result = new ArrayList<FileStatus>();
+        for(FileStatus file : super.listStatus(job)) {
+            if(file.getPath().getName().endsWith(AvroOutputFormat.EXT)) {
+                result.add(file);
+            }
+        }
+        return result.toArray(new FileStatus[result.size()]);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public RecordReader<AvroWrapper<IndexedRecord>, NullWritable> getRecordReader(InputSplit split, JobConf job,
+                                                                                 Reporter reporter) throws IOException {
+        final Class readerClass = FileRecordReader.class;
+        final RecordReader<AvroWrapper<IndexedRecord>, NullWritable> reader =
+                new CombineFileRecordReader<AvroWrapper<IndexedRecord>, NullWritable>(job, (CombineFileSplit)split,
+                        reporter, readerClass);
+        return AvroSchemeInputFormat.filter(reader, job, reporter);
+    }
+
+    /**
+     * Reads a single file of a combined split
+     */
+    public static class FileRecordReader extends AvroSchemeRecordReader {
+        public FileRecordReader(CombineFileSplit split, Configuration conf, Reporter reporter, Integer index)
+                throws IOException {
+            super(conf instanceof JobConf ? (JobConf)conf : new JobConf(conf), new FileSplit(split.getPath(index),
+                    split.getOffset(index), split.getLength(index), split.getLocations()));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+/**
+ * Hadoop counters published by Avro schemes. Apart from {@link #RECORDS_FILTERED} and the sort buffer counters,
+ * counters are only published when metrics are enabled, see {@link AvroMetrics}. Timings are estimated from a sample of records.
+ */
+public enum AvroCounters {
+    /** Records rejected by the source predicate */
+    RECORDS_FILTERED,
+    /** Records read from input splits */
+    RECORDS_READ,
+    /** Records written to output files */
+    RECORDS_WRITTEN,
+    /** Bytes of input splits read, as stored */
+    BYTES_READ,
+    /** Bytes of encoded records or text lines before compression */
+    BYTES_ENCODED,
+    /** Bytes of Avro data files written, after compression */
+    BYTES_WRITTEN,
+    /** Nanoseconds spent reading and decoding records */
+    DECODE_NANOS,
+    /** Nanoseconds spent converting sourced records to tuples */
+    SOURCE_CONVERT_NANOS,
+    /** Nanoseconds spent converting sunk tuples to records */
+    SINK_CONVERT_NANOS,
+    /** Nanoseconds spent encoding records */
+    ENCODE_NANOS,
+    /** Nanoseconds spent buffering, compressing and writing blocks of encoded records */
+    COMPRESS_NANOS,
+    /** Sourced strings of interned fields found in the dictionary */
+    INTERN_HITS,
+    /** Sourced strings of interned fields decoded, including all values of fields with too many distinct values */
+    INTERN_MISSES,
+    /** Sorted runs of records written by sinks with sort fields */
+    SORTED_RUNS,
+    /** Peak bytes held by the sort buffer of each sink task, summed over tasks */
+    SORT_BUFFER_BYTES
+}
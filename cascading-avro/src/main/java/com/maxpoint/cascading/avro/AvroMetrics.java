@@ -0,0 +1,250 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects {@link AvroCounters} of a task and publishes them through the task's {@link Reporter}. Schemes enable
+ * metrics with their {@code setMetrics} method, which wraps their input and output formats in metered ones. When
+ * disabled, nothing is wrapped and no counters are collected.
+ * <p>
+ * Metrics can be switched off for a whole flow by setting {@value #ENABLED} to false in the job configuration.
+ * Timings are measured for one in every {@value #SAMPLE_INTERVAL} calls, 100 by default, and published multiplied by
+ * the interval. Null values are counted per field, in counters named {@code NULLS_READ_<field>} and
+ * {@code NULLS_WRITTEN_<field>} of the same group.
+ * <p>
+ * Record readers and writers register metrics for the thread of the task, schemes pick them up with
+ * {@link #conversion}. Counters are accumulated locally and published in batches.
+ */
+public final class AvroMetrics {
+    public static final String ENABLED = "cascading.avro.metrics";
+    public static final String SAMPLE_INTERVAL = "cascading.avro.metrics.sample.interval";
+
+    public static final int DEFAULT_SAMPLE_INTERVAL = 100;
+
+    private static final String GROUP = AvroCounters.class.getName();
+    private static final AvroCounters[] COUNTERS = AvroCounters.values();
+    private static final int FLUSH_INTERVAL = 1000;
+    private static final ThreadLocal<AvroMetrics> CURRENT = new ThreadLocal<AvroMetrics>();
+
+    private final Reporter reporter;
+    private final int sampleInterval;
+    private final long[] counters = new long[COUNTERS.length];
+    private final List<Conversion> conversions = new ArrayList<Conversion>();
+    private int pending;
+
+    private AvroMetrics(Reporter reporter, int sampleInterval) {
+        this.reporter = reporter;
+        this.sampleInterval = sampleInterval;
+    }
+
+    /**
+     * Tells whether metrics enabled by a scheme haven't been switched off in the job configuration
+     */
+    static boolean isEnabled(JobConf conf, boolean schemeEnabled) {
+        return schemeEnabled && conf.getBoolean(ENABLED, true);
+    }
+
+    /**
+     * Returns metrics of the current task, creating them for the first reader or writer of the task
+     */
+    static AvroMetrics register(JobConf conf, Reporter reporter) {
+        AvroMetrics metrics = CURRENT.get();
+        // readers and writers of one task share metrics, tasks of a reused JVM don't
+        if(metrics == null || metrics.reporter != reporter && reporter != Reporter.NULL) {
+            final int sampleInterval = conf.getInt(SAMPLE_INTERVAL, DEFAULT_SAMPLE_INTERVAL);
+            if(sampleInterval <= 0) {
+                throw new IllegalArgumentException("Sample interval must be positive, found " + sampleInterval);
+            }
+            metrics = new AvroMetrics(reporter, sampleInterval);
+            CURRENT.set(metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * Creates conversion metrics for fields of a scheme. Returned metrics do nothing when no metered reader or writer
+     * is registered in the current task.
+     */
+    static Conversion conversion(AvroCounters timer, String nullPrefix, Fields fields) {
+        final AvroMetrics metrics = CURRENT.get();
+        final String[] names = new String[fields.size()];
+        for(int i = 0; i < names.length; i++) {
+            names[i] = nullPrefix + fields.get(i);
+        }
+        if(metrics == null) {
+            return new Conversion(null, null, names);
+        }
+        final Conversion result = new Conversion(metrics, metrics.timer(timer), names);
+        metrics.conversions.add(result);
+        return result;
+    }
+
+    Timer timer(AvroCounters counter) {
+        return new Timer(counter);
+    }
+
+    void add(AvroCounters counter, long amount) {
+        counters[counter.ordinal()] += amount;
+    }
+
+    /**
+     * Increments a per record counter, publishing all counters every {@value #FLUSH_INTERVAL} records
+     */
+    void increment(AvroCounters counter) {
+        counters[counter.ordinal()]++;
+        if(++pending == FLUSH_INTERVAL) {
+            flush();
+        }
+    }
+
+    void flush() {
+        for(int i = 0; i < counters.length; i++) {
+            if(counters[i] != 0) {
+                reporter.incrCounter(COUNTERS[i], counters[i]);
+                counters[i] = 0;
+            }
+        }
+        for(Conversion conversion : conversions) {
+            conversion.flush(reporter);
+        }
+        pending = 0;
+    }
+
+    /**
+     * Publishes remaining counters and unregisters metrics once a reader or writer is closed
+     */
+    void close() {
+        flush();
+        if(CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * Measures a sample of calls:
+     * <pre>
+     * final boolean timed = timer.start();
+     * ...
+     * if(timed) {
+     *     timer.stop();
+     * }
+     * </pre>
+     */
+    final class Timer {
+        private final AvroCounters counter;
+        private int calls;
+        private long start;
+
+        private Timer(AvroCounters counter) {
+            this.counter = counter;
+        }
+
+        boolean start() {
+            if(++calls < sampleInterval) {
+                return false;
+            }
+            calls = 0;
+            start = System.nanoTime();
+            return true;
+        }
+
+        void stop() {
+            counters[counter.ordinal()] += (System.nanoTime() - start) * sampleInterval;
+        }
+    }
+
+    /**
+     * Conversion timing and null counts of a scheme
+     */
+    static final class Conversion {
+        private final AvroMetrics metrics;
+        private final Timer timer;
+        private final String[] names;
+        private final long[] nulls;
+
+        private Conversion(AvroMetrics metrics, Timer timer, String[] names) {
+            this.metrics = metrics;
+            this.timer = timer;
+            this.names = names;
+            nulls = new long[names.length];
+        }
+
+        boolean start() {
+            return timer != null && timer.start();
+        }
+
+        void stop() {
+            timer.stop();
+        }
+
+        void add(AvroCounters counter, long amount) {
+            if(metrics != null) {
+                metrics.add(counter, amount);
+            }
+        }
+
+        void countNulls(Tuple tuple) {
+            if(metrics != null) {
+                for(int i = 0; i < nulls.length; i++) {
+                    if(tuple.getObject(i) == null) {
+                        nulls[i]++;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Counts nulls of values at given positions of the tuple, one position per counted field
+         */
+        void countNulls(Tuple tuple, int[] positions) {
+            if(metrics != null) {
+                for(int i = 0; i < nulls.length; i++) {
+                    if(tuple.getObject(positions[i]) == null) {
+                        nulls[i]++;
+                    }
+                }
+            }
+        }
+
+        void countNulls(IndexedRecord record) {
+            if(metrics != null) {
+                for(int i = 0; i < nulls.length; i++) {
+                    if(record.get(i) == null) {
+                        nulls[i]++;
+                    }
+                }
+            }
+        }
+
+        private void flush(Reporter reporter) {
+            for(int i = 0; i < nulls.length; i++) {
+                if(nulls[i] != 0) {
+                    reporter.incrCounter(GROUP, names[i], nulls[i]);
+                    nulls[i] = 0;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.mapred.AvroOutputFormat;
+import org.apache.avro.mapred.AvroWrapper;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.Progressable;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Output format used by {@link AvroPartitionScheme}. Records are collected with the relative directory of their
+ * partition as the value and written to a data file in that directory. Each task keeps at most
+ * {@value #MAX_OPEN_WRITERS} files open, closing the least recently used one when another partition is needed.
+ * Reopened partitions get a new file, named after the task output file with a sequence number. With
+ * {@value AvroSinkConfig#MAX_FILE_SIZE} set, files of a partition roll over at that size, taking the next sequence
+ * number of the partition.
+ */
+public class AvroPartitionOutputFormat extends FileOutputFormat<AvroWrapper<IndexedRecord>, Text> {
+    public static final String MAX_OPEN_WRITERS = "cascading.avro.sink.partition.max.open";
+
+    public static final int DEFAULT_MAX_OPEN_WRITERS = 32;
+
+    @Override
+    public RecordWriter<AvroWrapper<IndexedRecord>, Text> getRecordWriter(FileSystem ignored, JobConf job, String name,
+                                                                         Progressable progress) throws IOException {
+        final int maxOpenWriters = job.getInt(MAX_OPEN_WRITERS, DEFAULT_MAX_OPEN_WRITERS);
+        if(maxOpenWriters <= 0) {
+            throw new IllegalArgumentException("Number of open writers must be positive, found " + maxOpenWriters);
+        }
+        return new PartitionWriter(job, name, maxOpenWriters, job.getLong(AvroSinkConfig.MAX_FILE_SIZE, 0),
+                AvroSchemeOutputFormat.metrics(job, progress));
+    }
+
+    private static final class PartitionWriter implements RecordWriter<AvroWrapper<IndexedRecord>, Text> {
+        private final JobConf job;
+        private final String name;
+        private final int maxOpenWriters;
+        private final long maxFileSize;
+        private final AvroMetrics metrics;
+        // access ordered, so the first entry is the least recently used writer
+        private final LinkedHashMap<Text, RecordWriter<AvroWrapper<IndexedRecord>, NullWritable>> writers =
+                new LinkedHashMap<Text, RecordWriter<AvroWrapper<IndexedRecord>, NullWritable>>(16, 0.75f, true);
+        private final Map<Text, Integer> files = new HashMap<Text, Integer>();
+        private final Text lastPartition = new Text();
+        private RecordWriter<AvroWrapper<IndexedRecord>, NullWritable> lastWriter;
+
+        private PartitionWriter(JobConf job, String name, int maxOpenWriters, long maxFileSize, AvroMetrics metrics) {
+            this.job = job;
+            this.name = name;
+            this.maxOpenWriters = maxOpenWriters;
+            this.maxFileSize = maxFileSize;
+            this.metrics = metrics;
+        }
+
+        public void write(AvroWrapper<IndexedRecord> key, Text partition) throws IOException {
+            // consecutive records usually share a partition
+            if(lastWriter == null || !partition.equals(lastPartition)) {
+                lastWriter = writer(partition);
+                lastPartition.set(partition);
+            }
+            lastWriter.write(key, NullWritable.get());
+        }
+
+        private RecordWriter<AvroWrapper<IndexedRecord>, NullWritable> writer(Text partition) throws IOException {
+            RecordWriter<AvroWrapper<IndexedRecord>, NullWritable> result = writers.get(partition);
+            if(result == null) {
+                if(writers.size() >= maxOpenWriters) {
+                    final Iterator<RecordWriter<AvroWrapper<IndexedRecord>, NullWritable>> eldest =
+                            writers.values().iterator();
+                    final RecordWriter<AvroWrapper<IndexedRecord>, NullWritable> evicted = eldest.next();
+                    eldest.remove();
+                    evicted.close(Reporter.NULL);
+                }
+
+                final Text key = new Text(partition);
+                if(maxFileSize > 0) {
+                    // rolled files share the sequence with reopened ones, so names never collide
+                    result = new AvroSchemeOutputFormat.RollingWriter(job, maxFileSize, metrics) {
+                        @Override
+                        Path nextPath() throws IOException {
+                            return nextFile(key);
+                        }
+                    };
+                } else {
+                    result = AvroSchemeOutputFormat.open(job, nextFile(key), metrics);
+                }
+                writers.put(key, result);
+            }
+            return result;
+        }
+
+        /**
+         * Returns path of the next file of the partition, numbered by the files opened for it so far
+         */
+        private Path nextFile(Text partition) throws IOException {
+            final Integer opened = files.get(partition);
+            final int sequence = opened == null ? 0 : opened;
+            files.put(partition, sequence + 1);
+
+            final String file = sequence == 0 ? name : name + "-" + sequence;
+            return FileOutputFormat.getTaskOutputPath(job,
+                    partition.toString() + Path.SEPARATOR + file + AvroOutputFormat.EXT);
+        }
+
+        public void close(Reporter reporter) throws IOException {
+            for(RecordWriter<AvroWrapper<IndexedRecord>, NullWritable> writer : writers.values()) {
+                writer.close(reporter);
+            }
+            writers.clear();
+            lastWriter = null;
+            if(metrics != null) {
+                metrics.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import org.apache.avro.Schema;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+
+import java.io.IOException;
+import java.util.EnumSet;
+
+/**
+ * Avro scheme that sinks tuples into sub-directories of the tap path, named after values of partition fields, for
+ * example {@code dt=2012-10-01/cust=42/part-00000.avro}. Partition fields must be fields of the schema and are kept in
+ * the records as well. Values are escaped so that they form a single path segment, null values are written as
+ * {@value #NULL_VALUE}.
+ * <p>
+ * Each task keeps up to {@link #setMaxOpenWriters(int)} files open. When a tuple of another partition arrives, the
+ * least recently used file is closed and a new file is started if the partition shows up again. Sorting or grouping
+ * tuples by partition fields keeps the number of files low.
+ * <p>
+ * Sorting buffered records with {@link #setSortFields(Fields)} isn't supported, each open file would need its own
+ * buffer.
+ * <p>
+ * When sourcing, the scheme reads all partition directories, which can be pruned with
+ * {@link #setPartitionPredicate(AvroPredicate)}.
+ */
+public class AvroPartitionScheme extends AvroScheme {
+    public static final String NULL_VALUE = "__null__";
+
+    private static final EnumSet<Schema.Type> PARTITION_TYPES = EnumSet.of(Schema.Type.BOOLEAN, Schema.Type.DOUBLE,
+            Schema.Type.FLOAT, Schema.Type.INT, Schema.Type.LONG, Schema.Type.NULL, Schema.Type.STRING);
+
+    private int maxOpenWriters = AvroPartitionOutputFormat.DEFAULT_MAX_OPEN_WRITERS;
+    private transient Fields partitionIncomingFields;
+    private transient int[] partitionPositions;
+    private transient Object[] partitionValues;
+    private transient Text partition;
+    private transient StringBuilder partitionBuilder;
+
+    public AvroPartitionScheme(Schema dataSchema, Fields partitionFields) {
+        super(dataSchema);
+        if(partitionFields.size() == 0) {
+            throw new IllegalArgumentException("Partition fields can't be empty");
+        }
+        for(int i = 0; i < partitionFields.size(); i++) {
+            final String name = partitionFields.get(i).toString();
+            final Schema.Field field = dataSchema.getField(name);
+            if(field == null) {
+                throw new IllegalArgumentException("Can't find partition field " + name + " in " + dataSchema.getFullName());
+            }
+            final Schema.Type type = field.schema().getType() == Schema.Type.UNION
+                    ? resolveUnion(field.schema()) : field.schema().getType();
+            if(!PARTITION_TYPES.contains(type)) {
+                throw new IllegalArgumentException("Can't partition by " + name + " of type " + type);
+            }
+        }
+        // lets the scheme source its own output
+        setPartitionFields(partitionFields);
+    }
+
+    public int getMaxOpenWriters() {
+        return maxOpenWriters;
+    }
+
+    /**
+     * Sets maximum number of files kept open by each task, can be overridden with
+     * {@value AvroPartitionOutputFormat#MAX_OPEN_WRITERS} in the job configuration
+     */
+    public void setMaxOpenWriters(int maxOpenWriters) {
+        if(maxOpenWriters <= 0) {
+            throw new IllegalArgumentException("Number of open writers must be positive, found " + maxOpenWriters);
+        }
+        this.maxOpenWriters = maxOpenWriters;
+    }
+
+    @Override
+    public void setSortFields(Fields sortFields) {
+        if(sortFields != null) {
+            throw new IllegalArgumentException("Can't sort records of partitioned sinks");
+        }
+        super.setSortFields(null);
+    }
+
+    @Override
+    public void sinkInit(Tap tap, JobConf conf) throws IOException {
+        super.sinkInit(tap, conf);
+        conf.setOutputFormat(AvroPartitionOutputFormat.class);
+        conf.setInt(AvroPartitionOutputFormat.MAX_OPEN_WRITERS,
+                conf.getInt(AvroPartitionOutputFormat.MAX_OPEN_WRITERS, maxOpenWriters));
+    }
+
+    /**
+     * Returns relative directory of the tuple's partition, only rebuilt when partition values change
+     */
+    @Override
+    protected Object sinkValue(TupleEntry tupleEntry) {
+        final Fields incoming = tupleEntry.getFields();
+        if(incoming != partitionIncomingFields) {
+            partitionPositions = new int[getPartitionFields().size()];
+            for(int i = 0; i < partitionPositions.length; i++) {
+                partitionPositions[i] = incoming.getPos(getPartitionFields().get(i));
+            }
+            partitionIncomingFields = incoming;
+        }
+        if(partition == null) {
+            partition = new Text();
+            partitionBuilder = new StringBuilder();
+            partitionValues = new Object[partitionPositions.length];
+        }
+
+        final Tuple tuple = tupleEntry.getTuple();
+        boolean changed = partition.getLength() == 0;
+        for(int i = 0; i < partitionPositions.length; i++) {
+            final Object val = tuple.getObject(partitionPositions[i]);
+            if(val == null ? partitionValues[i] != null : !val.equals(partitionValues[i])) {
+                partitionValues[i] = val;
+                changed = true;
+            }
+        }
+        if(changed) {
+            partitionBuilder.setLength(0);
+            for(int i = 0; i < partitionValues.length; i++) {
+                if(i > 0) {
+                    partitionBuilder.append('/');
+                }
+                partitionBuilder.append(getPartitionFields().get(i)).append('=');
+                if(partitionValues[i] == null) {
+                    partitionBuilder.append(NULL_VALUE);
+                } else {
+                    escape(partitionValues[i].toString(), partitionBuilder);
+                }
+            }
+            partition.set(partitionBuilder.toString());
+        }
+        return partition;
+    }
+
+    /**
+     * Escapes characters that can't be used in a path segment as %XX
+     */
+    static void escape(String value, StringBuilder result) {
+        for(int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if(c < ' ' || c == 0x7f || "\"#%'*/:=?\\{}[]^<>|".indexOf(c) >= 0) {
+                result.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4 & 0xf, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(c & 0xf, 16)));
+            } else {
+                result.append(c);
+            }
+        }
+    }
+
+    /**
+     * Reverses {@link #escape(String, StringBuilder)}
+     */
+    static String unescape(String value) {
+        if(value.indexOf('%') < 0) {
+            return value;
+        }
+        final StringBuilder result = new StringBuilder(value.length());
+        for(int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if(c == '%' && i + 2 < value.length()) {
+                result.append((char)Integer.parseInt(value.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,423 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.util.Utf8;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A filter on Avro records, evaluated against decoded records before they are converted to tuples. Predicates are
+ * built with the static factory methods, for example
+ * <pre>
+ *     and(eq("eventType", "click"), ge("timestamp", 1325376000L), notNull("userId"))
+ * </pre>
+ * Comparisons support boolean, int, long, float, double and string fields. Strings are compared by their UTF-8 bytes,
+ * the same way Avro sorts them. A comparison with a null field value is always false.
+ */
+public abstract class AvroPredicate implements Serializable {
+    enum Op {
+        EQ("=="), NE("!="), LT("<"), LE("<="), GT(">"), GE(">=");
+
+        private final String symbol;
+
+        Op(String symbol) {
+            this.symbol = symbol;
+        }
+
+        boolean test(int comparison) {
+            switch(this) {
+                case EQ:
+                    return comparison == 0;
+                case NE:
+                    return comparison != 0;
+                case LT:
+                    return comparison < 0;
+                case LE:
+                    return comparison <= 0;
+                case GT:
+                    return comparison > 0;
+                default:
+                    return comparison >= 0;
+            }
+        }
+    }
+
+    public static AvroPredicate eq(String field, Object value) {
+        return new Comparison(field, Op.EQ, value);
+    }
+
+    public static AvroPredicate ne(String field, Object value) {
+        return new Comparison(field, Op.NE, value);
+    }
+
+    public static AvroPredicate lt(String field, Object value) {
+        return new Comparison(field, Op.LT, value);
+    }
+
+    public static AvroPredicate le(String field, Object value) {
+        return new Comparison(field, Op.LE, value);
+    }
+
+    public static AvroPredicate gt(String field, Object value) {
+        return new Comparison(field, Op.GT, value);
+    }
+
+    public static AvroPredicate ge(String field, Object value) {
+        return new Comparison(field, Op.GE, value);
+    }
+
+    /**
+     * Matches values from lower to upper, inclusive
+     */
+    public static AvroPredicate between(String field, Object lower, Object upper) {
+        return and(ge(field, lower), le(field, upper));
+    }
+
+    public static AvroPredicate isNull(String field) {
+        return new NullCheck(field, true);
+    }
+
+    public static AvroPredicate notNull(String field) {
+        return new NullCheck(field, false);
+    }
+
+    public static AvroPredicate and(AvroPredicate... predicates) {
+        return new Junction(true, predicates);
+    }
+
+    public static AvroPredicate or(AvroPredicate... predicates) {
+        return new Junction(false, predicates);
+    }
+
+    public static AvroPredicate not(AvroPredicate predicate) {
+        return new Negation(predicate);
+    }
+
+    /**
+     * Resolves field positions and constants against the schema of records passed to {@link #matches(IndexedRecord)}
+     */
+    abstract void bind(Schema schema);
+
+    abstract boolean matches(IndexedRecord record);
+
+    /**
+     * Evaluates the predicate against a record with some unknown field values, given by positions of the bound schema.
+     * Returns null when the result depends on unknown values.
+     */
+    abstract Boolean matches(IndexedRecord record, boolean[] known);
+
+    /**
+     * Evaluates the predicate against a block of records described by {@link BlockIndex} statistics: minimum and
+     * maximum of non-null values and null counts, given by positions of the bound schema. Returns true when all records
+     * of the block match, false when none does and null when some may.
+     */
+    abstract Boolean matches(IndexedRecord min, IndexedRecord max, IndexedRecord nulls, long count);
+
+    /**
+     * Adds names of fields used by the predicate
+     */
+    abstract void collectFields(Set<String> fields);
+
+    private static Schema.Field field(Schema schema, String name) {
+        final Schema.Field field = schema.getField(name);
+        if(field == null) {
+            throw new IllegalArgumentException("Can't find field " + name + " in " + schema.getFullName());
+        }
+        return field;
+    }
+
+    static final class Comparison extends AvroPredicate {
+        final String field;
+        final Op op;
+        final Object value;
+        private transient int pos;
+        private transient Schema schema;
+        private transient Object constant;
+
+        private Comparison(String field, Op op, Object value) {
+            if(value == null) {
+                throw new IllegalArgumentException("Can't compare " + field + " with null, use isNull or notNull");
+            }
+            this.field = field;
+            this.op = op;
+            this.value = value;
+        }
+
+        @Override
+        void bind(Schema recordSchema) {
+            final Schema.Field schemaField = field(recordSchema, field);
+            pos = schemaField.pos();
+            schema = nonNull(schemaField.schema());
+            constant = constant(schema.getType());
+        }
+
+        private Schema nonNull(Schema fieldSchema) {
+            if(fieldSchema.getType() == Schema.Type.UNION) {
+                for(Schema component : fieldSchema.getTypes()) {
+                    if(component.getType() != Schema.Type.NULL) {
+                        return component;
+                    }
+                }
+            }
+            return fieldSchema;
+        }
+
+        private Object constant(Schema.Type type) {
+            if(type == Schema.Type.STRING) {
+                return new Utf8(value.toString());
+            }
+            if(type == Schema.Type.BOOLEAN && value instanceof Boolean) {
+                return value;
+            }
+            if(value instanceof Number) {
+                final Number number = (Number)value;
+                switch(type) {
+                    case INT:
+                        return number.intValue();
+                    case LONG:
+                        return number.longValue();
+                    case FLOAT:
+                        return number.floatValue();
+                    case DOUBLE:
+                        return number.doubleValue();
+                }
+            }
+            throw new IllegalArgumentException("Can't compare " + field + " of type " + type + " with " + value);
+        }
+
+        @Override
+        boolean matches(IndexedRecord record) {
+            final Object val = record.get(pos);
+            return val != null && op.test(GenericData.get().compare(val, constant, schema));
+        }
+
+        @Override
+        Boolean matches(IndexedRecord record, boolean[] known) {
+            return known[pos] ? matches(record) : null;
+        }
+
+        @Override
+        Boolean matches(IndexedRecord min, IndexedRecord max, IndexedRecord nulls, long count) {
+            final long nullCount = (Long)nulls.get(pos);
+            if(nullCount == count) {
+                return Boolean.FALSE;
+            }
+            final int lower = GenericData.get().compare(min.get(pos), constant, schema);
+            final int upper = GenericData.get().compare(max.get(pos), constant, schema);
+            final boolean any, all;
+            if(op == Op.EQ || op == Op.NE) {
+                final boolean equal = lower == 0 && upper == 0;
+                final boolean disjoint = lower > 0 || upper < 0;
+                any = op == Op.EQ ? !disjoint : !equal;
+                all = op == Op.EQ ? equal : disjoint;
+            } else {
+                // the remaining operators are monotonic, so the bounds decide
+                any = op.test(lower) || op.test(upper);
+                all = op.test(lower) && op.test(upper);
+            }
+            if(!any) {
+                return Boolean.FALSE;
+            }
+            return all && nullCount == 0 ? Boolean.TRUE : null;
+        }
+
+        @Override
+        void collectFields(Set<String> fields) {
+            fields.add(field);
+        }
+
+        @Override
+        public String toString() {
+            return field + " " + op.symbol + " " + value;
+        }
+    }
+
+    static final class NullCheck extends AvroPredicate {
+        final String field;
+        final boolean isNull;
+        private transient int pos;
+
+        private NullCheck(String field, boolean isNull) {
+            this.field = field;
+            this.isNull = isNull;
+        }
+
+        @Override
+        void bind(Schema schema) {
+            pos = field(schema, field).pos();
+        }
+
+        @Override
+        boolean matches(IndexedRecord record) {
+            return (record.get(pos) == null) == isNull;
+        }
+
+        @Override
+        Boolean matches(IndexedRecord record, boolean[] known) {
+            return known[pos] ? matches(record) : null;
+        }
+
+        @Override
+        Boolean matches(IndexedRecord min, IndexedRecord max, IndexedRecord nulls, long count) {
+            final long nullCount = (Long)nulls.get(pos);
+            if(nullCount == 0) {
+                return !isNull;
+            }
+            if(nullCount == count) {
+                return isNull;
+            }
+            return null;
+        }
+
+        @Override
+        void collectFields(Set<String> fields) {
+            fields.add(field);
+        }
+
+        @Override
+        public String toString() {
+            return field + (isNull ? " is null" : " is not null");
+        }
+    }
+
+    static final class Junction extends AvroPredicate {
+        final boolean conjunction;
+        final AvroPredicate[] predicates;
+
+        private Junction(boolean conjunction, AvroPredicate[] predicates) {
+            if(predicates.length == 0) {
+                throw new IllegalArgumentException("At least one predicate is required");
+            }
+            this.conjunction = conjunction;
+            this.predicates = predicates.clone();
+        }
+
+        List<AvroPredicate> getPredicates() {
+            return Arrays.asList(predicates);
+        }
+
+        @Override
+        void bind(Schema schema) {
+            for(AvroPredicate predicate : predicates) {
+                predicate.bind(schema);
+            }
+        }
+
+        @Override
+        boolean matches(IndexedRecord record) {
+            for(AvroPredicate predicate : predicates) {
+                if(predicate.matches(record) != conjunction) {
+                    return !conjunction;
+                }
+            }
+            return conjunction;
+        }
+
+        @Override
+        Boolean matches(IndexedRecord record, boolean[] known) {
+            Boolean result = conjunction;
+            for(AvroPredicate predicate : predicates) {
+                final Boolean matches = predicate.matches(record, known);
+                if(matches == null) {
+                    result = null;
+                } else if(matches != conjunction) {
+                    return !conjunction;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        Boolean matches(IndexedRecord min, IndexedRecord max, IndexedRecord nulls, long count) {
+            Boolean result = conjunction;
+            for(AvroPredicate predicate : predicates) {
+                final Boolean matches = predicate.matches(min, max, nulls, count);
+                if(matches == null) {
+                    result = null;
+                } else if(matches != conjunction) {
+                    return !conjunction;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        void collectFields(Set<String> fields) {
+            for(AvroPredicate predicate : predicates) {
+                predicate.collectFields(fields);
+            }
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder result = new StringBuilder("(");
+            for(int i = 0; i < predicates.length; i++) {
+                if(i > 0) {
+                    result.append(conjunction ? " and " : " or ");
+                }
+                result.append(predicates[i]);
+            }
+            return result.append(')').toString();
+        }
+    }
+
+    static final class Negation extends AvroPredicate {
+        final AvroPredicate predicate;
+
+        private Negation(AvroPredicate predicate) {
+            this.predicate = predicate;
+        }
+
+        @Override
+        void bind(Schema schema) {
+            predicate.bind(schema);
+        }
+
+        @Override
+        boolean matches(IndexedRecord record) {
+            return !predicate.matches(record);
+        }
+
+        @Override
+        Boolean matches(IndexedRecord record, boolean[] known) {
+            final Boolean matches = predicate.matches(record, known);
+            return matches == null ? null : !matches;
+        }
+
+        @Override
+        Boolean matches(IndexedRecord min, IndexedRecord max, IndexedRecord nulls, long count) {
+            final Boolean matches = predicate.matches(min, max, nulls, count);
+            return matches == null ? null : !matches;
+        }
+
+        @Override
+        void collectFields(Set<String> fields) {
+            predicate.collectFields(fields);
+        }
+
+        @Override
+        public String toString() {
+            return "not " + predicate;
+        }
+    }
+}
@@ -20,25 +20,28 @@ import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
 import cascading.tuple.TupleEntry;
 import org.apache.avro.Schema;
-import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericFixed;
 import org.apache.avro.generic.IndexedRecord;
-import org.apache.avro.mapred.AvroInputFormat;
 import org.apache.avro.mapred.AvroJob;
-import org.apache.avro.mapred.AvroOutputFormat;
 import org.apache.avro.mapred.AvroSerialization;
 import org.apache.avro.mapred.AvroWrapper;
-import org.apache.avro.specific.SpecificData;
+import org.apache.avro.util.Utf8;
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.OutputCollector;
+import org.codehaus.jackson.node.NullNode;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Cascading scheme for reading data serialized using Avro. This scheme sources and sinks tuples with fields named
@@ -57,6 +60,47 @@ import java.util.LinkedHashMap;
  *     <li>string</li>
  *     <li>union of [type, null], treated as nullable value of the type</li>
  * </ul>
+ * <p>
+ * When constructed with a subset of the schema fields, the scheme only sources those fields. The rest of every record
+ * is skipped by the Avro decoder and never materialized. The scheme still sinks all fields of the schema.
+ * <p>
+ * By default every sourced tuple is a new object. Binary values wrap the arrays decoded by Avro, which are detached
+ * from the record so the reader decodes the next value into a new array. With {@link #setReuseTuples(boolean)}
+ * enabled, the scheme returns the same {@link Tuple} and per-field {@link BytesWritable} instances for every record,
+ * so they may only be used until the next record is read.
+ * <p>
+ * Output compression and block size are controlled by {@link AvroSinkConfig}.
+ * <p>
+ * A schema specific {@link AvroTupleConverter}, as generated by the cascading-avro maven plugin, can replace the
+ * generic conversion between tuples and records with {@link #setConverter(Class)}.
+ * <p>
+ * Records can be filtered before they are converted to tuples with {@link #setPredicate(AvroPredicate)}.
+ * <p>
+ * Many small files can be packed into fewer map tasks with {@link #setCombineSplitSize(long)}.
+ * <p>
+ * Record counts, sizes, null counts and timings are published as Hadoop counters with {@link #setMetrics(boolean)},
+ * see {@link AvroMetrics}.
+ * <p>
+ * Inputs partitioned into {@code key=value} directories, as written by {@link AvroPartitionScheme}, are read
+ * recursively once {@link #setPartitionFields(Fields)} is set. Partition fields missing from the schema are sourced
+ * as nullable strings taken from the directory names, and whole directories are skipped when they can't match
+ * {@link #setPartitionPredicate(AvroPredicate)}.
+ * <p>
+ * With {@link #setIndexFields(Fields)}, every sunk file gets a {@link BlockIndex} holding value ranges of the fields
+ * per block. Sources with a predicate on those fields seek past blocks outside the ranges.
+ * <p>
+ * With {@link #setLazyStrings(boolean)}, string fields are sourced as {@link LazyString} values that keep the UTF-8
+ * bytes read by Avro and only decode them when used as characters.
+ * <p>
+ * String fields with few distinct values can be interned with {@link #setInternFields(Fields)}, so each value is
+ * decoded once per task and repeated values share a single {@link String}.
+ * <p>
+ * Blocks can be read and decompressed on a background thread ahead of the conversion of records with
+ * {@link #setReadAhead(int)}.
+ * <p>
+ * With {@link #setSortFields(Fields)}, each sink task buffers records and writes them sorted by the fields, so similar
+ * records share blocks and compress better. The buffer is bounded by {@link #setSortBufferSize(int)} records and
+ * {@link #setSortBufferMemory(long)} bytes.
  */
 @SuppressWarnings("deprecation")
 public class AvroScheme extends AvroSchemeBase {
@@ -66,7 +110,38 @@ public class AvroScheme extends AvroSchemeBase {
 
     private Schema dataSchema;
     private FieldType[] fieldTypes;
-    private transient IndexedRecord cached;
+    private Schema sourceSchema;
+    private FieldType[] sourceFieldTypes;
+    private boolean reuseTuples;
+    private AvroSinkConfig sinkConfig = new AvroSinkConfig();
+    private Class<? extends AvroTupleConverter> converterClass;
+    private AvroPredicate predicate;
+    private long combineSplitSize;
+    private boolean metrics;
+    private Fields projection;
+    private Fields partitionFields;
+    private AvroPredicate partitionPredicate;
+    private Fields indexFields;
+    private boolean lazyStrings;
+    private Fields internFields;
+    private int internLimit = StringDictionary.DEFAULT_LIMIT;
+    private int readAhead;
+    private long readAheadMemory = AvroSchemeRecordReader.DEFAULT_READ_AHEAD_MEMORY;
+    private Fields sortFields;
+    private int sortBufferSize = AvroSchemeOutputFormat.DEFAULT_SORT_BUFFER_RECORDS;
+    private long sortBufferMemory = AvroSchemeOutputFormat.DEFAULT_SORT_BUFFER_MEMORY;
+    private transient AvroTupleConverter converter;
+    private transient AvroWrapper<IndexedRecord> sinkWrapper;
+    private transient AvroValueWriter[] sinkWriters;
+    private transient Fields sinkIncomingFields;
+    private transient int[] sinkPositions;
+    private transient boolean sinkInOrder;
+    private transient Tuple sourceTuple;
+    private transient BytesWritable[] sourceBytes;
+    private transient LazyString[] sourceStrings;
+    private transient StringDictionary[] sourceDictionaries;
+    private transient AvroMetrics.Conversion sourceMetrics;
+    private transient AvroMetrics.Conversion sinkMetrics;
     
     public AvroScheme(Schema dataSchema) {
         this.dataSchema = dataSchema;
@@ -76,14 +151,458 @@ public class AvroScheme extends AvroSchemeBase {
         setSinkFields(fields);
         setSourceFields(fields);
 
+        fieldTypes = fieldTypes(schemaFields);
+        sourceSchema = dataSchema;
+        sourceFieldTypes = fieldTypes;
+    }
+
+    /**
+     * Creates scheme that only sources given fields of the schema
+     */
+    public AvroScheme(Schema dataSchema, Fields sourceFields) {
+        this(dataSchema);
+        projection = fields(parseSchema(projectSchema(dataSchema, sourceFields), ALLOWED_TYPES));
+        updateSource();
+    }
+
+    /**
+     * Derives the reader schema and sourced fields from the projection, the predicate and virtual partition fields
+     */
+    private void updateSource() {
+        final String[] virtual = virtualFields();
+        if(projection == null && virtual.length == 0) {
+            sourceSchema = dataSchema;
+            sourceFieldTypes = fieldTypes;
+            setSourceFields(getSinkFields());
+            return;
+        }
+
+        final Fields projected = projection != null ? projection : getSinkFields();
+        final Schema read = projectSchema(dataSchema, readFields(projected, predicate));
+        if(virtual.length == 0) {
+            sourceSchema = read;
+        } else {
+            final List<Schema.Field> fields = new ArrayList<Schema.Field>();
+            for(Schema.Field field : read.getFields()) {
+                fields.add(new Schema.Field(field.name(), field.schema(), field.doc(), field.defaultValue(), field.order()));
+            }
+            for(String name : virtual) {
+                fields.add(new Schema.Field(name, Partitions.nullableString(), null, NullNode.getInstance()));
+            }
+            sourceSchema = Schema.createRecord(read.getName(), read.getDoc(), read.getNamespace(), read.isError());
+            sourceSchema.setFields(fields);
+        }
+
+        final Fields sourced = projected.append(new Fields(virtual));
+        sourceFieldTypes = fieldTypes(sourceSchema, sourced);
+        setSourceFields(sourced);
+    }
+
+    /**
+     * Looks up types of given fields in the schema
+     */
+    private FieldType[] fieldTypes(Schema schema, Fields fields) {
+        final LinkedHashMap<String, FieldType> schemaFields = parseSchema(schema, ALLOWED_TYPES);
+        final FieldType[] result = new FieldType[fields.size()];
+        for(int i = 0; i < result.length; i++) {
+            result[i] = schemaFields.get(fields.get(i).toString());
+        }
+        return result;
+    }
+
+    /**
+     * Returns partition fields that are not part of the schema, their values only exist in directory names
+     */
+    private String[] virtualFields() {
+        if(partitionFields == null) {
+            return new String[0];
+        }
+        final List<String> result = new ArrayList<String>();
+        for(int i = 0; i < partitionFields.size(); i++) {
+            final String name = partitionFields.get(i).toString();
+            if(dataSchema.getField(name) == null) {
+                result.add(name);
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * Returns types of the sourced fields in the order of {@link #getSourceFields()}, positions refer to the reader
+     * schema, which may hold further fields read for the predicate
+     */
+    FieldType[] getSourceFieldTypes() {
+        return sourceFieldTypes;
+    }
+
+    public boolean isReuseTuples() {
+        return reuseTuples;
+    }
+
+    /**
+     * Enables reuse of sourced tuples and binary values between records. Callers must not keep references to sourced
+     * tuples or their values once the next record is read.
+     */
+    public void setReuseTuples(boolean reuseTuples) {
+        this.reuseTuples = reuseTuples;
+    }
+
+    public AvroSinkConfig getSinkConfig() {
+        return sinkConfig;
+    }
+
+    /**
+     * Sets codec, compression level and sync interval used when sinking
+     */
+    public void setSinkConfig(AvroSinkConfig sinkConfig) {
+        this.sinkConfig = sinkConfig;
+    }
+
+    public Class<? extends AvroTupleConverter> getConverter() {
+        return converterClass;
+    }
+
+    /**
+     * Uses given converter class to convert between tuples and records. The converter must be generated for the same
+     * schema as this scheme and can't be combined with a projection.
+     */
+    public void setConverter(Class<? extends AvroTupleConverter> converterClass) {
+        if(converterClass != null) {
+            final Schema converterSchema = newConverter(converterClass).getSchema();
+            if(!dataSchema.equals(converterSchema)) {
+                throw new IllegalArgumentException("Can't use converter for " + converterSchema.getFullName()
+                        + " with " + dataSchema.getFullName());
+            }
+            if(projection != null || virtualFields().length > 0) {
+                throw new IllegalArgumentException("Can't use converter with projection " + getSourceFields());
+            }
+            if(lazyStrings) {
+                throw new IllegalArgumentException("Can't use converter with lazy strings");
+            }
+            if(internFields != null) {
+                throw new IllegalArgumentException("Can't use converter with intern fields " + internFields);
+            }
+        }
+        this.converterClass = converterClass;
+        this.converter = null;
+    }
+
+    public AvroPredicate getPredicate() {
+        return predicate;
+    }
+
+    /**
+     * Sets predicate used to skip records while sourcing. Fields used by the predicate are read even if they are not
+     * part of the projection.
+     */
+    public void setPredicate(AvroPredicate predicate) {
+        if(predicate != null) {
+            // fail early on unknown fields or wrong constants
+            predicate.bind(dataSchema);
+        }
+        this.predicate = predicate;
+        updateSource();
+    }
+
+    /**
+     * Appends fields used by the predicate to the projected fields. Projected fields keep their positions.
+     */
+    private Fields readFields(Fields projected, AvroPredicate predicate) {
+        if(predicate == null) {
+            return projected;
+        }
+        final Set<String> used = new LinkedHashSet<String>();
+        predicate.collectFields(used);
+        for(int i = 0; i < projected.size(); i++) {
+            used.remove(projected.get(i).toString());
+        }
+        if(used.isEmpty()) {
+            return projected;
+        }
+        return projected.append(new Fields(used.toArray(new String[used.size()])));
+    }
+
+    public long getCombineSplitSize() {
+        return combineSplitSize;
+    }
+
+    /**
+     * Combines small input files into splits of up to the given number of bytes, zero disables combining
+     */
+    public void setCombineSplitSize(long combineSplitSize) {
+        if(combineSplitSize < 0) {
+            throw new IllegalArgumentException("Split size can't be negative, found " + combineSplitSize);
+        }
+        this.combineSplitSize = combineSplitSize;
+    }
+
+    public boolean isMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Enables publishing of {@link AvroCounters} by tasks sourcing or sinking this scheme
+     */
+    public void setMetrics(boolean metrics) {
+        this.metrics = metrics;
+    }
+
+    public boolean isLazyStrings() {
+        return lazyStrings;
+    }
+
+    /**
+     * Sources string fields as {@link LazyString} instead of {@link String}. Lazy values group and sort by their bytes
+     * without being decoded, but can't be compared to strings coming from other sources. Can't be used with a
+     * converter.
+     */
+    public void setLazyStrings(boolean lazyStrings) {
+        if(lazyStrings && converterClass != null) {
+            throw new IllegalArgumentException("Can't use lazy strings with converter " + converterClass.getName());
+        }
+        this.lazyStrings = lazyStrings;
+    }
+
+    public Fields getInternFields() {
+        return internFields;
+    }
+
+    /**
+     * Interns sourced values of the given string fields, which takes precedence over {@link #setLazyStrings(boolean)}.
+     * Hits and misses are published as {@link AvroCounters} when metrics are enabled. Can't be used with a converter.
+     */
+    public void setInternFields(Fields internFields) {
+        if(internFields != null) {
+            if(converterClass != null) {
+                throw new IllegalArgumentException("Can't intern fields with converter " + converterClass.getName());
+            }
+            for(int i = 0; i < internFields.size(); i++) {
+                final String name = internFields.get(i).toString();
+                final Schema.Field field = dataSchema.getField(name);
+                if(field == null) {
+                    throw new IllegalArgumentException("Can't find intern field " + name + " in " + dataSchema.getFullName());
+                }
+                if(fieldTypes[field.pos()].type != Schema.Type.STRING) {
+                    throw new IllegalArgumentException("Can't intern field " + name + " of type " + field.schema());
+                }
+            }
+        }
+        this.internFields = internFields;
+        this.sourceDictionaries = null;
+    }
+
+    public int getInternLimit() {
+        return internLimit;
+    }
+
+    /**
+     * Sets number of distinct values interned per field, fields with more values are decoded without interning
+     */
+    public void setInternLimit(int internLimit) {
+        if(internLimit <= 0) {
+            throw new IllegalArgumentException("Intern limit must be positive, found " + internLimit);
+        }
+        this.internLimit = internLimit;
+        this.sourceDictionaries = null;
+    }
+
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Reads and decompresses up to the given number of blocks ahead on a background thread, zero reads blocks on the
+     * task thread
+     */
+    public void setReadAhead(int readAhead) {
+        if(readAhead < 0) {
+            throw new IllegalArgumentException("Read ahead can't be negative, found " + readAhead);
+        }
+        this.readAhead = readAhead;
+    }
+
+    public long getReadAheadMemory() {
+        return readAheadMemory;
+    }
+
+    /**
+     * Sets number of bytes of raw and decompressed blocks held by read ahead, a single block may exceed it
+     */
+    public void setReadAheadMemory(long readAheadMemory) {
+        if(readAheadMemory <= 0) {
+            throw new IllegalArgumentException("Read ahead memory must be positive, found " + readAheadMemory);
+        }
+        this.readAheadMemory = readAheadMemory;
+    }
+
+    public Fields getPartitionFields() {
+        return partitionFields;
+    }
+
+    /**
+     * Reads input directories partitioned by {@code key=value} segments of the given fields. Fields that are not part
+     * of the schema are appended to the sourced fields as nullable strings.
+     */
+    public void setPartitionFields(Fields partitionFields) {
+        final Fields previous = this.partitionFields;
+        this.partitionFields = partitionFields;
+        if(converterClass != null && virtualFields().length > 0) {
+            this.partitionFields = previous;
+            throw new IllegalArgumentException("Can't use converter with virtual partition fields " + partitionFields);
+        }
+        if(partitionFields == null) {
+            partitionPredicate = null;
+        } else if(partitionPredicate != null) {
+            partitionPredicate.bind(Partitions.schema(names(partitionFields)));
+        }
+        updateSource();
+    }
+
+    public AvroPredicate getPartitionPredicate() {
+        return partitionPredicate;
+    }
+
+    /**
+     * Sets predicate used to skip partition directories while listing the input. Partition values are compared as
+     * strings, directories of partitions not named by the path yet are only skipped once the predicate can't match.
+     */
+    public void setPartitionPredicate(AvroPredicate partitionPredicate) {
+        if(partitionPredicate != null) {
+            if(partitionFields == null) {
+                throw new IllegalArgumentException("Partition fields must be set before the partition predicate");
+            }
+            partitionPredicate.bind(Partitions.schema(names(partitionFields)));
+        }
+        this.partitionPredicate = partitionPredicate;
+    }
+
+    private static List<String> names(Fields fields) {
+        final List<String> result = new ArrayList<String>(fields.size());
+        for(int i = 0; i < fields.size(); i++) {
+            result.add(fields.get(i).toString());
+        }
+        return result;
+    }
+
+    public Fields getIndexFields() {
+        return indexFields;
+    }
+
+    /**
+     * Writes minimum and maximum values of given fields per block when sinking, so sources can skip blocks that don't
+     * match their predicate. Works best for fields the sunk tuples are sorted or clustered by.
+     */
+    public void setIndexFields(Fields indexFields) {
+        if(indexFields != null) {
+            for(int i = 0; i < indexFields.size(); i++) {
+                final String name = indexFields.get(i).toString();
+                final Schema.Field field = dataSchema.getField(name);
+                if(field == null) {
+                    throw new IllegalArgumentException("Can't find index field " + name + " in " + dataSchema.getFullName());
+                }
+                BlockIndex.keySchema(field);
+            }
+        }
+        this.indexFields = indexFields;
+    }
+
+    public Fields getSortFields() {
+        return sortFields;
+    }
+
+    /**
+     * Buffers sunk records and writes them sorted by given fields in the Avro sort order, null writes records in the
+     * order they are sunk
+     */
+    public void setSortFields(Fields sortFields) {
+        if(sortFields != null) {
+            for(int i = 0; i < sortFields.size(); i++) {
+                final String name = sortFields.get(i).toString();
+                if(dataSchema.getField(name) == null) {
+                    throw new IllegalArgumentException("Can't find sort field " + name + " in " + dataSchema.getFullName());
+                }
+            }
+        }
+        this.sortFields = sortFields;
+    }
+
+    public int getSortBufferSize() {
+        return sortBufferSize;
+    }
+
+    /**
+     * Sets maximum number of records sorted at once
+     */
+    public void setSortBufferSize(int sortBufferSize) {
+        if(sortBufferSize <= 0) {
+            throw new IllegalArgumentException("Sort buffer size must be positive, found " + sortBufferSize);
+        }
+        this.sortBufferSize = sortBufferSize;
+    }
+
+    public long getSortBufferMemory() {
+        return sortBufferMemory;
+    }
+
+    /**
+     * Sets number of bytes of encoded records after which the buffer is sorted and written, up to
+     * {@value AvroSchemeOutputFormat#MAX_SORT_BUFFER_MEMORY}
+     */
+    public void setSortBufferMemory(long sortBufferMemory) {
+        if(sortBufferMemory <= 0 || sortBufferMemory > AvroSchemeOutputFormat.MAX_SORT_BUFFER_MEMORY) {
+            throw new IllegalArgumentException("Sort buffer memory must be between 1 and "
+                    + AvroSchemeOutputFormat.MAX_SORT_BUFFER_MEMORY + ", found " + sortBufferMemory);
+        }
+        this.sortBufferMemory = sortBufferMemory;
+    }
+
+    private AvroTupleConverter converter() {
+        if(converter == null) {
+            converter = newConverter(converterClass);
+        }
+        return converter;
+    }
+
+    private static AvroTupleConverter newConverter(Class<? extends AvroTupleConverter> converterClass) {
+        try {
+            return converterClass.newInstance();
+        } catch(InstantiationException e) {
+            throw new IllegalArgumentException("Can't create converter " + converterClass.getName(), e);
+        } catch(IllegalAccessException e) {
+            throw new IllegalArgumentException("Can't create converter " + converterClass.getName(), e);
+        }
+    }
+
+    private FieldType[] fieldTypes(LinkedHashMap<String, FieldType> schemaFields) {
         final Collection<FieldType> types = schemaFields.values();
-        fieldTypes = types.toArray(new FieldType[types.size()]); 
+        return types.toArray(new FieldType[types.size()]);
     }
 
     @Override
     public void sourceInit(Tap tap, JobConf conf) throws IOException {
-        conf.set(AvroJob.INPUT_SCHEMA, dataSchema.toString());
-        conf.setInputFormat(AvroInputFormat.class);
+        conf.set(AvroJob.INPUT_SCHEMA, sourceSchema.toString());
+        if(combineSplitSize > 0) {
+            conf.setInputFormat(AvroCombineInputFormat.class);
+            conf.setLong(AvroCombineInputFormat.MAX_SPLIT_SIZE, combineSplitSize);
+        } else {
+            conf.setInputFormat(AvroSchemeInputFormat.class);
+        }
+        ConfSerialization.set(conf, AvroSchemeInputFormat.PREDICATE, predicate);
+        conf.setInt(AvroSchemeRecordReader.READ_AHEAD_BLOCKS,
+                conf.getInt(AvroSchemeRecordReader.READ_AHEAD_BLOCKS, readAhead));
+        conf.setLong(AvroSchemeRecordReader.READ_AHEAD_MEMORY,
+                conf.getLong(AvroSchemeRecordReader.READ_AHEAD_MEMORY, readAheadMemory));
+        if(partitionFields != null) {
+            conf.setStrings(Partitions.FIELDS, names(partitionFields).toArray(new String[partitionFields.size()]));
+            final String[] virtual = virtualFields();
+            if(virtual.length > 0) {
+                conf.setStrings(Partitions.VIRTUAL_FIELDS, virtual);
+            }
+            ConfSerialization.set(conf, Partitions.PREDICATE, partitionPredicate);
+        }
+        if(AvroMetrics.isEnabled(conf, metrics)) {
+            MeteredInputFormat.install(conf);
+        }
         addAvroSerialization(conf);
     }
 
@@ -92,33 +611,133 @@ public class AvroScheme extends AvroSchemeBase {
     public Tuple source(Object key, Object value) {
         final AvroWrapper<IndexedRecord> wrapper = (AvroWrapper<IndexedRecord>) key;
         final IndexedRecord record = wrapper.datum();
+        if(!metrics) {
+            return source(record);
+        }
 
-        final Tuple result = Tuple.size(getSourceFields().size());
-        for(int i = 0; i < fieldTypes.length; i++) {
-            final Object val = fromAvro(fieldTypes[i], record.get(fieldTypes[i].pos));
+        if(sourceMetrics == null) {
+            sourceMetrics = AvroMetrics.conversion(AvroCounters.SOURCE_CONVERT_NANOS, "NULLS_READ_", getSourceFields());
+        }
+        final boolean timed = sourceMetrics.start();
+        final Tuple result = source(record);
+        if(timed) {
+            sourceMetrics.stop();
+        }
+        sourceMetrics.countNulls(result);
+        return result;
+    }
+
+    private Tuple source(IndexedRecord record) {
+        final Tuple result = sourceTuple();
+        if(converterClass != null) {
+            converter().fromAvro(record, result);
+            return result;
+        }
+        if(internFields != null && sourceDictionaries == null) {
+            sourceDictionaries = sourceDictionaries();
+        }
+        for(int i = 0; i < sourceFieldTypes.length; i++) {
+            final Object val = fromAvro(i, sourceFieldTypes[i], record);
             result.set(i, val);
         }
         return result;
     }
 
-    private Object fromAvro(FieldType typeInfo, Object val) {
+    private StringDictionary[] sourceDictionaries() {
+        final Fields sourceFields = getSourceFields();
+        final StringDictionary[] result = new StringDictionary[sourceFieldTypes.length];
+        for(int i = 0; i < result.length; i++) {
+            for(int j = 0; j < internFields.size(); j++) {
+                if(internFields.get(j).equals(sourceFields.get(i))) {
+                    result[i] = new StringDictionary(internLimit, sourceMetrics);
+                }
+            }
+        }
+        return result;
+    }
+
+    private Tuple sourceTuple() {
+        if(!reuseTuples) {
+            return Tuple.size(sourceFieldTypes.length);
+        }
+        if(sourceTuple == null) {
+            sourceTuple = Tuple.size(sourceFieldTypes.length);
+            sourceBytes = new BytesWritable[sourceFieldTypes.length];
+            sourceStrings = new LazyString[sourceFieldTypes.length];
+        }
+        return sourceTuple;
+    }
+
+    private Object fromAvro(int index, FieldType typeInfo, IndexedRecord record) {
+        final Object val = record.get(typeInfo.pos);
         if(val == null) {
             return null;
         }
         switch(typeInfo.type) {
             case STRING:
+                if(sourceDictionaries != null && sourceDictionaries[index] != null && val instanceof Utf8) {
+                    return sourceDictionaries[index].get((Utf8)val);
+                }
+                if(lazyStrings) {
+                    return lazyString(index, val);
+                }
                 return val.toString();
             case FIXED:
+                if(reuseTuples) {
+                    final byte[] bytes = ((GenericFixed)val).bytes();
+                    return reusedBytes(index, bytes, 0, bytes.length);
+                }
+                // the reader reuses fixed instances of a reused record, so the next record gets a new one
+                record.put(typeInfo.pos, null);
                 return new BytesWritable(((GenericFixed)val).bytes());
             case BYTES:
-                return bytesWritable((ByteBuffer)val);
+                final ByteBuffer buffer = (ByteBuffer)val;
+                if(reuseTuples && buffer.hasArray()) {
+                    return reusedBytes(index, buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                }
+                record.put(typeInfo.pos, null);
+                return bytesWritable(buffer);
         }
         return val;
     }
 
+    private LazyString lazyString(int index, Object val) {
+        if(!(val instanceof Utf8)) {
+            return new LazyString(val.toString());
+        }
+        final Utf8 utf8 = (Utf8)val;
+        if(!reuseTuples) {
+            return new LazyString(utf8.getBytes(), 0, utf8.getByteLength());
+        }
+        LazyString result = sourceStrings[index];
+        if(result == null) {
+            result = new LazyString();
+            sourceStrings[index] = result;
+        }
+        result.set(utf8.getBytes(), 0, utf8.getByteLength());
+        return result;
+    }
+
+    private BytesWritable reusedBytes(int index, byte[] data, int offset, int length) {
+        BytesWritable result = sourceBytes[index];
+        if(result == null) {
+            result = new BytesWritable();
+            sourceBytes[index] = result;
+        }
+        result.set(data, offset, length);
+        return result;
+    }
+
+    /**
+     * Wraps the backing array of a buffer detached from its record, copying only buffers the reader made larger than
+     * their value while reusing them
+     */
     private BytesWritable bytesWritable(ByteBuffer val) {
+        if(val.hasArray() && val.arrayOffset() == 0 && val.position() == 0 && val.remaining() == val.array().length) {
+            return new BytesWritable(val.array());
+        }
         final byte[] data = new byte[val.remaining()];
-        val.get(data);
+        val.duplicate().get(data);
         return new BytesWritable(data);
     }
 
@@ -126,13 +745,22 @@ public class AvroScheme extends AvroSchemeBase {
     public void sinkInit(Tap tap, JobConf conf) throws IOException {
         addAvroSerialization(conf);
         conf.set(AvroJob.OUTPUT_SCHEMA, dataSchema.toString());
-        conf.setOutputFormat(AvroOutputFormat.class);
+        conf.setOutputFormat(AvroSchemeOutputFormat.class);
         conf.setOutputKeyClass(AvroWrapper.class);
+        conf.setBoolean(AvroSchemeOutputFormat.METRICS, AvroMetrics.isEnabled(conf, metrics));
+        if(indexFields != null && conf.get(BlockIndex.FIELDS) == null) {
+            conf.setStrings(BlockIndex.FIELDS, names(indexFields).toArray(new String[indexFields.size()]));
+        }
+        if(sortFields != null && conf.get(AvroSchemeOutputFormat.SORT_FIELDS) == null) {
+            conf.setStrings(AvroSchemeOutputFormat.SORT_FIELDS, names(sortFields).toArray(new String[sortFields.size()]));
+        }
+        conf.setInt(AvroSchemeOutputFormat.SORT_BUFFER_RECORDS,
+                conf.getInt(AvroSchemeOutputFormat.SORT_BUFFER_RECORDS, sortBufferSize));
+        conf.setLong(AvroSchemeOutputFormat.SORT_BUFFER_MEMORY,
+                conf.getLong(AvroSchemeOutputFormat.SORT_BUFFER_MEMORY, sortBufferMemory));
 
         // set compression
-        AvroOutputFormat.setDeflateLevel(conf, 6);
-        AvroJob.setOutputCodec(conf, DataFileConstants.DEFLATE_CODEC);
-        AvroOutputFormat.setSyncInterval(conf, 1048576);
+        sinkConfig.configure(conf);
     }
 
     private void addAvroSerialization(JobConf conf) {
@@ -147,53 +775,133 @@ public class AvroScheme extends AvroSchemeBase {
     @SuppressWarnings("unchecked")
     @Override
     public void sink(TupleEntry tupleEntry, OutputCollector output) throws IOException {
-        cached = (IndexedRecord)SpecificData.get().newRecord(cached, dataSchema);
+        if(sinkWrapper == null) {
+            initSink();
+        }
 
-        final Fields sinkFields = getSinkFields();
-        for(int i = 0; i < fieldTypes.length; i++) {
-            final Comparable field = sinkFields.get(i);
-            final Object val = tupleEntry.get(field);
-            cached.put(fieldTypes[i].pos, toAvro(field, fieldTypes[i], val));
+        final IndexedRecord record = sinkWrapper.datum();
+        if(!metrics) {
+            sink(tupleEntry, record);
+        } else {
+            if(sinkMetrics == null) {
+                sinkMetrics = AvroMetrics.conversion(AvroCounters.SINK_CONVERT_NANOS, "NULLS_WRITTEN_", getSinkFields());
+            }
+            final boolean timed = sinkMetrics.start();
+            sink(tupleEntry, record);
+            if(timed) {
+                sinkMetrics.stop();
+            }
+            sinkMetrics.countNulls(record);
         }
-        output.collect(new AvroWrapper<IndexedRecord>(cached), NullWritable.get());
+        output.collect(sinkWrapper, sinkValue(tupleEntry));
     }
-    
-    private Object toAvro(Comparable field, FieldType typeInfo, Object val) throws IOException {
-        if(val == null) {
-            if(typeInfo.isNullable) {
-                return null;
+
+    /**
+     * Returns value collected along with the sunk record, read by the output format set in {@link #sinkInit}
+     */
+    protected Object sinkValue(TupleEntry tupleEntry) {
+        return NullWritable.get();
+    }
+
+    private void sink(TupleEntry tupleEntry, IndexedRecord record) {
+        final int[] positions = sinkPositions(tupleEntry.getFields());
+        if(converterClass != null) {
+            final Tuple tuple = sinkInOrder ? tupleEntry.getTuple() : tupleEntry.selectTuple(getSinkFields());
+            converter().toAvro(tuple, record);
+            return;
+        }
+
+        final Tuple tuple = tupleEntry.getTuple();
+        for(int i = 0; i < fieldTypes.length; i++) {
+            final Object val = tuple.getObject(positions[i]);
+            if(val == null) {
+                if(!fieldTypes[i].isNullable) {
+                    throw new NullPointerException("Field " + getSinkFields().get(i) + " is not nullable");
+                }
+                record.put(fieldTypes[i].pos, null);
             } else {
-                throw new NullPointerException("Field " + field + " is not nullable");
+                record.put(fieldTypes[i].pos, sinkWriters[i].toAvro(val));
             }
         }
-        
-        switch(typeInfo.type) {
-            case STRING:
-                return val.toString();
-            case FIXED:
-                return SpecificData.get().createFixed(null, ((BytesWritable)val).getBytes(), typeInfo.schema);
-            case BYTES:
-                return ByteBuffer.wrap(((BytesWritable)val).getBytes());
-            case LONG:
-                return ((Number)val).longValue();
-            case INT:
-                return ((Number)val).intValue();
-            case DOUBLE:
-                return ((Number)val).doubleValue();
-            case FLOAT:
-                return ((Number)val).floatValue();
+    }
+
+    private void initSink() {
+        sinkWriters = new AvroValueWriter[fieldTypes.length];
+        for(int i = 0; i < fieldTypes.length; i++) {
+            sinkWriters[i] = AvroValueWriter.forField(fieldTypes[i]);
         }
-        return val;
+        sinkWrapper = new AvroWrapper<IndexedRecord>(new GenericData.Record(dataSchema));
+    }
+
+    /**
+     * Resolves positions of sink fields in the incoming tuples, only when the incoming fields change
+     */
+    private int[] sinkPositions(Fields incoming) {
+        if(incoming != sinkIncomingFields) {
+            final Fields sinkFields = getSinkFields();
+            final int[] positions = new int[sinkFields.size()];
+            boolean inOrder = incoming.size() == positions.length;
+            for(int i = 0; i < positions.length; i++) {
+                positions[i] = incoming.getPos(sinkFields.get(i));
+                inOrder &= positions[i] == i;
+            }
+            sinkPositions = positions;
+            sinkInOrder = inOrder;
+            sinkIncomingFields = incoming;
+        }
+        return sinkPositions;
     }
 
+    /**
+     * Field types are derived from the schemas when reading, so every schema is only written once
+     */
     private void writeObject(java.io.ObjectOutputStream out) throws IOException {
-        out.writeObject(this.fieldTypes);
-        out.writeUTF(this.dataSchema.toString());
+        writeSchema(out, this.dataSchema);
+        writeSchema(out, this.sourceSchema);
+        out.writeBoolean(this.reuseTuples);
+        out.writeObject(this.sinkConfig);
+        out.writeObject(this.converterClass);
+        out.writeObject(this.predicate);
+        out.writeLong(this.combineSplitSize);
+        out.writeBoolean(this.metrics);
+        out.writeObject(this.projection);
+        out.writeObject(this.partitionFields);
+        out.writeObject(this.partitionPredicate);
+        out.writeObject(this.indexFields);
+        out.writeBoolean(this.lazyStrings);
+        out.writeObject(this.internFields);
+        out.writeInt(this.internLimit);
+        out.writeInt(this.readAhead);
+        out.writeLong(this.readAheadMemory);
+        out.writeObject(this.sortFields);
+        out.writeInt(this.sortBufferSize);
+        out.writeLong(this.sortBufferMemory);
     }
 
+    @SuppressWarnings("unchecked")
     private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
-        this.fieldTypes = (FieldType[])in.readObject();
         this.dataSchema = readSchema(in);
+        this.fieldTypes = fieldTypes(parseSchema(dataSchema, ALLOWED_TYPES));
+        this.sourceSchema = readSchema(in);
+        this.sourceFieldTypes = sourceSchema == dataSchema ? fieldTypes : fieldTypes(sourceSchema, getSourceFields());
+        this.reuseTuples = in.readBoolean();
+        this.sinkConfig = (AvroSinkConfig)in.readObject();
+        this.converterClass = (Class<? extends AvroTupleConverter>)in.readObject();
+        this.predicate = (AvroPredicate)in.readObject();
+        this.combineSplitSize = in.readLong();
+        this.metrics = in.readBoolean();
+        this.projection = (Fields)in.readObject();
+        this.partitionFields = (Fields)in.readObject();
+        this.partitionPredicate = (AvroPredicate)in.readObject();
+        this.indexFields = (Fields)in.readObject();
+        this.lazyStrings = in.readBoolean();
+        this.internFields = (Fields)in.readObject();
+        this.internLimit = in.readInt();
+        this.readAhead = in.readInt();
+        this.readAheadMemory = in.readLong();
+        this.sortFields = (Fields)in.readObject();
+        this.sortBufferSize = in.readInt();
+        this.sortBufferMemory = in.readLong();
     }
 
 }
@@ -22,7 +22,9 @@ import org.apache.hadoop.io.BytesWritable;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -52,6 +54,27 @@ public abstract class AvroSchemeBase extends Scheme {
         return fields;
     }
 
+    /**
+     * Derives a reader schema that only contains given fields, in the order of the fields. Avro's schema resolution
+     * skips all other fields while decoding.
+     */
+    protected Schema projectSchema(Schema avroSchema, Fields fields) {
+        final List<Schema.Field> projected = new ArrayList<Schema.Field>(fields.size());
+        for(int i = 0; i < fields.size(); i++) {
+            final String name = fields.get(i).toString();
+            final Schema.Field field = avroSchema.getField(name);
+            if(field == null) {
+                throw new IllegalArgumentException("Can't find field " + name + " in " + avroSchema.getFullName());
+            }
+            projected.add(new Schema.Field(field.name(), field.schema(), field.doc(), field.defaultValue(), field.order()));
+        }
+
+        final Schema result = Schema.createRecord(avroSchema.getName(), avroSchema.getDoc(), avroSchema.getNamespace(),
+                avroSchema.isError());
+        result.setFields(projected);
+        return result;
+    }
+
     private FieldType typeInfo(Schema.Field field) {
         final Schema schema = field.schema();
         final Schema.Type type = schema.getType();
@@ -114,9 +137,22 @@ public abstract class AvroSchemeBase extends Scheme {
         return new Fields(names.toArray(new String[names.size()]));
     }
     
-    static Schema readSchema(ObjectInputStream in) throws IOException {
-        final Schema.Parser parser = new Schema.Parser();
-        return parser.parse(in.readUTF());
+    /**
+     * Writes fingerprint and JSON form of the schema. The JSON string is shared by equal schemas, so a stream holding
+     * many schemes stores each distinct schema once and refers back to it afterwards.
+     */
+    static void writeSchema(ObjectOutputStream out, Schema schema) throws IOException {
+        final String json = SchemaCache.json(schema);
+        out.writeLong(SchemaCache.fingerprint(json.getBytes("UTF-8")));
+        out.writeObject(json);
+    }
+
+    /**
+     * Reads schema written by {@link #writeSchema}, parsing each distinct schema only once per JVM
+     */
+    static Schema readSchema(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        final long fingerprint = in.readLong();
+        return SchemaCache.parse(fingerprint, (String)in.readObject());
     }
 
     final class FieldType implements Serializable {
@@ -136,7 +172,7 @@ public abstract class AvroSchemeBase extends Scheme {
             out.writeBoolean(isNullable);
             out.writeObject(type);
             out.writeInt(pos);
-            out.writeUTF(schema.toString());
+            writeSchema(out, schema);
         }
 
         private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
@@ -0,0 +1,123 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.mapred.AvroInputFormat;
+import org.apache.avro.mapred.AvroJob;
+import org.apache.avro.mapred.AvroWrapper;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+import java.io.IOException;
+
+/**
+ * Input format used by {@link AvroScheme}. Files may be written with any schema compatible with the reader schema of
+ * the scheme, see {@link AvroSchemeRecordReader}. Records rejected by the source predicate are skipped by the record
+ * reader, so they are never converted to tuples. Directories partitioned by {@code key=value} segments are listed by
+ * {@link Partitions}.
+ */
+public class AvroSchemeInputFormat extends AvroInputFormat<IndexedRecord> {
+    static final String PREDICATE = "cascading.avro.source.predicate";
+
+    @Override
+    protected FileStatus[] listStatus(JobConf job) throws IOException {
+        final FileStatus[] partitioned = Partitions.listStatus(job);
+        return partitioned != null ? partitioned : super.listStatus(job);
+    }
+
+    @Override
+    public RecordReader<AvroWrapper<IndexedRecord>, NullWritable> getRecordReader(InputSplit split, JobConf job,
+                                                                                 Reporter reporter) throws IOException {
+        reporter.setStatus(split.toString());
+        return filter(new AvroSchemeRecordReader(job, (FileSplit)split), job, reporter);
+    }
+
+    /**
+     * Wraps the reader to skip records rejected by the predicate, if any, set in the job
+     */
+    static RecordReader<AvroWrapper<IndexedRecord>, NullWritable> filter(
+            RecordReader<AvroWrapper<IndexedRecord>, NullWritable> reader, JobConf job, Reporter reporter) throws IOException {
+        final AvroPredicate predicate = ConfSerialization.get(job, PREDICATE);
+        if(predicate == null) {
+            return reader;
+        }
+        predicate.bind(AvroJob.getInputSchema(job));
+        return new FilterRecordReader(reader, predicate, reporter == null ? Reporter.NULL : reporter);
+    }
+
+    private static final class FilterRecordReader implements RecordReader<AvroWrapper<IndexedRecord>, NullWritable> {
+        private static final int COUNTER_BATCH = 1000;
+
+        private final RecordReader<AvroWrapper<IndexedRecord>, NullWritable> reader;
+        private final AvroPredicate predicate;
+        private final Reporter reporter;
+        private long filtered;
+
+        private FilterRecordReader(RecordReader<AvroWrapper<IndexedRecord>, NullWritable> reader,
+                                   AvroPredicate predicate, Reporter reporter) {
+            this.reader = reader;
+            this.predicate = predicate;
+            this.reporter = reporter;
+        }
+
+        public boolean next(AvroWrapper<IndexedRecord> key, NullWritable value) throws IOException {
+            while(reader.next(key, value)) {
+                if(predicate.matches(key.datum())) {
+                    return true;
+                }
+                if(++filtered == COUNTER_BATCH) {
+                    flushCounters();
+                }
+            }
+            flushCounters();
+            return false;
+        }
+
+        private void flushCounters() {
+            if(filtered > 0) {
+                reporter.incrCounter(AvroCounters.RECORDS_FILTERED, filtered);
+                filtered = 0;
+            }
+        }
+
+        public AvroWrapper<IndexedRecord> createKey() {
+            return reader.createKey();
+        }
+
+        public NullWritable createValue() {
+            return reader.createValue();
+        }
+
+        public long getPos() throws IOException {
+            return reader.getPos();
+        }
+
+        public float getProgress() throws IOException {
+            return reader.getProgress();
+        }
+
+        public void close() throws IOException {
+            flushCounters();
+            reader.close();
+        }
+    }
+}
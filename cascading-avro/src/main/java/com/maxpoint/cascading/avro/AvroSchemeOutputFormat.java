@@ -0,0 +1,342 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.mapred.AvroJob;
+import org.apache.avro.mapred.AvroOutputFormat;
+import org.apache.avro.mapred.AvroWrapper;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.Progressable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Output format used by {@link AvroScheme}. Writes the same data files as {@link AvroOutputFormat}, using a generic
+ * datum writer. With metrics enabled, records are encoded separately from the data file writer, so encoding and
+ * block compression are measured apart. With {@value BlockIndex#FIELDS} set, statistics of every block are written
+ * to a {@link BlockIndex}. With {@value AvroSinkConfig#COMPRESSION_THREADS} set, deflate compressed files are written
+ * by a {@link ParallelBlockWriter}. With {@value AvroSinkConfig#MAX_FILE_SIZE} set, a task continues with a new file
+ * once the current one reaches the size, named after the task output file with a sequence number. With
+ * {@value #SORT_FIELDS} set, records are buffered and written sorted by those fields, see {@link SortingWriter}.
+ */
+public class AvroSchemeOutputFormat extends AvroOutputFormat<IndexedRecord> {
+    public static final String SORT_FIELDS = "cascading.avro.sink.sort.fields";
+    public static final String SORT_BUFFER_RECORDS = "cascading.avro.sink.sort.buffer.records";
+    public static final String SORT_BUFFER_MEMORY = "cascading.avro.sink.sort.buffer.memory";
+
+    public static final int DEFAULT_SORT_BUFFER_RECORDS = 100000;
+    public static final long DEFAULT_SORT_BUFFER_MEMORY = 64L << 20;
+    /** Largest sort buffer, records are buffered in a single array */
+    public static final long MAX_SORT_BUFFER_MEMORY = Integer.MAX_VALUE - 8;
+
+    static final String METRICS = "cascading.avro.sink.metrics";
+
+    @Override
+    public RecordWriter<AvroWrapper<IndexedRecord>, NullWritable> getRecordWriter(FileSystem ignored, final JobConf job,
+                                                                                 final String name, Progressable progress) throws IOException {
+        final AvroMetrics metrics = metrics(job, progress);
+        final long maxFileSize = job.getLong(AvroSinkConfig.MAX_FILE_SIZE, 0);
+        final RecordWriter<AvroWrapper<IndexedRecord>, NullWritable> files;
+        if(maxFileSize > 0) {
+            final RollingWriter rolling = new RollingWriter(job, maxFileSize, metrics) {
+                private int sequence;
+
+                @Override
+                Path nextPath() throws IOException {
+                    final String file = sequence == 0 ? name : name + "-" + sequence;
+                    sequence++;
+                    return FileOutputFormat.getTaskOutputPath(job, file + EXT);
+                }
+            };
+            // a task without records still writes its first file
+            rolling.roll();
+            files = rolling;
+        } else {
+            files = open(job, FileOutputFormat.getTaskOutputPath(job, name + EXT), metrics);
+        }
+        final String[] sortFields = job.getStrings(SORT_FIELDS);
+        final RecordWriter<AvroWrapper<IndexedRecord>, NullWritable> writer = sortFields == null ? files
+                : new SortingWriter(files, SchemaCache.parse(job.get(AvroJob.OUTPUT_SCHEMA)), sortFields,
+                        job.getInt(SORT_BUFFER_RECORDS, DEFAULT_SORT_BUFFER_RECORDS),
+                        job.getLong(SORT_BUFFER_MEMORY, DEFAULT_SORT_BUFFER_MEMORY));
+        if(metrics == null) {
+            return writer;
+        }
+        return new RecordWriter<AvroWrapper<IndexedRecord>, NullWritable>() {
+            public void write(AvroWrapper<IndexedRecord> key, NullWritable value) throws IOException {
+                writer.write(key, value);
+            }
+
+            public void close(Reporter reporter) throws IOException {
+                writer.close(reporter);
+                metrics.close();
+            }
+        };
+    }
+
+    /**
+     * Returns metrics of the task if enabled for the sink, metrics are closed by the caller
+     */
+    static AvroMetrics metrics(JobConf job, Progressable progress) {
+        if(!job.getBoolean(METRICS, false)) {
+            return null;
+        }
+        return AvroMetrics.register(job, progress instanceof Reporter ? (Reporter)progress : Reporter.NULL);
+    }
+
+    /**
+     * Creates a data file writing records of the job's output schema to given path
+     */
+    static RecordWriter<AvroWrapper<IndexedRecord>, NullWritable> open(JobConf job, Path path,
+                                                                     AvroMetrics metrics) throws IOException {
+        return open(job, path, path.getFileSystem(job).create(path), metrics);
+    }
+
+    private static RecordWriter<AvroWrapper<IndexedRecord>, NullWritable> open(JobConf job, Path path,
+                                                                             FSDataOutputStream out,
+                                                                             AvroMetrics metrics) throws IOException {
+        final Schema schema = SchemaCache.parse(job.get(AvroJob.OUTPUT_SCHEMA));
+        final GenericDatumWriter<IndexedRecord> datumWriter = new GenericDatumWriter<IndexedRecord>(schema);
+        final DataFileWriter<IndexedRecord> writer = new DataFileWriter<IndexedRecord>(datumWriter);
+        configure(writer, job);
+
+        final String[] keys = job.getStrings(BlockIndex.FIELDS);
+        final int syncInterval = job.getInt(SYNC_INTERVAL_KEY, DataFileConstants.DEFAULT_SYNC_INTERVAL);
+        final int threads = job.getInt(AvroSinkConfig.COMPRESSION_THREADS, 0);
+        if(threads > 0 && isDeflate(job)) {
+            final int level = job.getInt(DEFLATE_LEVEL_KEY, DEFAULT_DEFLATE_LEVEL);
+            return new ParallelBlockWriter(schema, writer, datumWriter, out, level, syncInterval, threads, metrics, keys,
+                    job, path);
+        }
+        writer.create(schema, out);
+
+        if(keys != null) {
+            final BlockIndex.Builder index = new BlockIndex.Builder(schema, keys, writer.sync());
+            return new EncodingWriter(writer, datumWriter, out, metrics, index, job, path, syncInterval);
+        }
+        if(metrics != null) {
+            return new EncodingWriter(writer, datumWriter, out, metrics, null, job, path, syncInterval);
+        }
+        return new Writer(writer);
+    }
+
+    private static boolean isDeflate(JobConf job) {
+        return FileOutputFormat.getCompressOutput(job)
+                && DataFileConstants.DEFLATE_CODEC.equals(job.get(AvroJob.OUTPUT_CODEC, DataFileConstants.DEFLATE_CODEC));
+    }
+
+    /**
+     * Applies codec, sync interval and metadata settings the same way as {@link AvroOutputFormat}
+     */
+    static void configure(DataFileWriter<?> writer, JobConf job) throws IOException {
+        if(FileOutputFormat.getCompressOutput(job)) {
+            final String codec = job.get(AvroJob.OUTPUT_CODEC, DataFileConstants.DEFLATE_CODEC);
+            if(DataFileConstants.DEFLATE_CODEC.equals(codec)) {
+                writer.setCodec(CodecFactory.deflateCodec(job.getInt(DEFLATE_LEVEL_KEY, DEFAULT_DEFLATE_LEVEL)));
+            } else {
+                writer.setCodec(CodecFactory.fromString(codec));
+            }
+        }
+        writer.setSyncInterval(job.getInt(SYNC_INTERVAL_KEY, DataFileConstants.DEFAULT_SYNC_INTERVAL));
+
+        for(Map.Entry<String, String> entry : job) {
+            final String key = entry.getKey();
+            if(key.startsWith(AvroJob.TEXT_PREFIX)) {
+                writer.setMeta(key.substring(AvroJob.TEXT_PREFIX.length()), entry.getValue());
+            } else if(key.startsWith(AvroJob.BINARY_PREFIX)) {
+                writer.setMeta(key.substring(AvroJob.BINARY_PREFIX.length()),
+                        URLDecoder.decode(entry.getValue(), "ISO-8859-1").getBytes("ISO-8859-1"));
+            }
+        }
+    }
+
+    /**
+     * Writes records to a sequence of files, closing the current file once the bytes that reached its stream exceed the
+     * maximum size. The limit is approximate: closing writes out the block in progress, and a {@link ParallelBlockWriter}
+     * also writes the blocks still being compressed, up to one per compression thread plus one. The next file is opened
+     * by the record following it, so rolling never leaves an empty file behind. Subclasses name the files.
+     */
+    abstract static class RollingWriter implements RecordWriter<AvroWrapper<IndexedRecord>, NullWritable> {
+        private final JobConf job;
+        private final long maxFileSize;
+        private final AvroMetrics metrics;
+        private RecordWriter<AvroWrapper<IndexedRecord>, NullWritable> writer;
+        private FSDataOutputStream out;
+
+        RollingWriter(JobConf job, long maxFileSize, AvroMetrics metrics) {
+            this.job = job;
+            this.maxFileSize = maxFileSize;
+            this.metrics = metrics;
+        }
+
+        /**
+         * Returns path of the next file, called once per file
+         */
+        abstract Path nextPath() throws IOException;
+
+        /**
+         * Opens the next file, the current one must be closed
+         */
+        void roll() throws IOException {
+            final Path path = nextPath();
+            out = path.getFileSystem(job).create(path);
+            writer = open(job, path, out, metrics);
+        }
+
+        public void write(AvroWrapper<IndexedRecord> key, NullWritable value) throws IOException {
+            if(writer == null) {
+                roll();
+            }
+            writer.write(key, value);
+            if(out.getPos() >= maxFileSize) {
+                writer.close(Reporter.NULL);
+                writer = null;
+            }
+        }
+
+        public void close(Reporter reporter) throws IOException {
+            if(writer != null) {
+                writer.close(reporter);
+                writer = null;
+            }
+        }
+    }
+
+    private static final class Writer implements RecordWriter<AvroWrapper<IndexedRecord>, NullWritable> {
+        private final DataFileWriter<IndexedRecord> writer;
+
+        private Writer(DataFileWriter<IndexedRecord> writer) {
+            this.writer = writer;
+        }
+
+        public void write(AvroWrapper<IndexedRecord> key, NullWritable value) throws IOException {
+            writer.append(key.datum());
+        }
+
+        public void close(Reporter reporter) throws IOException {
+            writer.close();
+        }
+    }
+
+    /**
+     * Encodes records before appending them to the data file, measuring the encoding when metrics are enabled and
+     * tracking block boundaries when indexing. Blocks end once the encoded records reach the sync interval, the same
+     * way the data file writer ends them.
+     */
+    private static final class EncodingWriter implements RecordWriter<AvroWrapper<IndexedRecord>, NullWritable> {
+        private final DataFileWriter<IndexedRecord> writer;
+        private final GenericDatumWriter<IndexedRecord> datumWriter;
+        private final FSDataOutputStream out;
+        private final AvroMetrics metrics;
+        private final AvroMetrics.Timer encodeTimer;
+        private final AvroMetrics.Timer compressTimer;
+        private final BlockIndex.Builder index;
+        private final JobConf job;
+        private final Path path;
+        private final int syncInterval;
+        private final Buffer buffer = new Buffer();
+        private BinaryEncoder encoder;
+        private long blockSize;
+
+        private EncodingWriter(DataFileWriter<IndexedRecord> writer, GenericDatumWriter<IndexedRecord> datumWriter,
+                               FSDataOutputStream out, AvroMetrics metrics, BlockIndex.Builder index, JobConf job,
+                               Path path, int syncInterval) {
+            this.writer = writer;
+            this.datumWriter = datumWriter;
+            this.out = out;
+            this.metrics = metrics;
+            this.index = index;
+            this.job = job;
+            this.path = path;
+            this.syncInterval = syncInterval;
+            encodeTimer = metrics != null ? metrics.timer(AvroCounters.ENCODE_NANOS) : null;
+            compressTimer = metrics != null ? metrics.timer(AvroCounters.COMPRESS_NANOS) : null;
+        }
+
+        public void write(AvroWrapper<IndexedRecord> key, NullWritable value) throws IOException {
+            final boolean encodeTimed = metrics != null && encodeTimer.start();
+            buffer.reset();
+            encoder = EncoderFactory.get().binaryEncoder(buffer, encoder);
+            datumWriter.write(key.datum(), encoder);
+            encoder.flush();
+            if(encodeTimed) {
+                encodeTimer.stop();
+            }
+
+            if(index != null) {
+                index.add(key.datum());
+            }
+            // blocks are compressed and written by the append that fills them
+            final boolean compressTimed = metrics != null && compressTimer.start();
+            writer.appendEncoded(buffer.toByteBuffer());
+            blockSize += buffer.size();
+            if(index != null && blockSize >= syncInterval) {
+                // the append just wrote the block, syncing only returns where the next one starts
+                index.endBlock(writer.sync());
+                blockSize = 0;
+            }
+            if(compressTimed) {
+                compressTimer.stop();
+            }
+
+            if(metrics != null) {
+                metrics.add(AvroCounters.BYTES_ENCODED, buffer.size());
+                metrics.increment(AvroCounters.RECORDS_WRITTEN);
+            }
+        }
+
+        public void close(Reporter reporter) throws IOException {
+            if(index != null) {
+                index.endBlock(writer.sync());
+            }
+            writer.flush();
+            final long length = out.getPos();
+            writer.close();
+            if(index != null) {
+                index.write(job, path, length);
+            }
+            if(metrics != null) {
+                metrics.add(AvroCounters.BYTES_WRITTEN, length);
+                metrics.flush();
+            }
+        }
+    }
+
+    private static final class Buffer extends ByteArrayOutputStream {
+        private ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import org.apache.avro.AvroTypeException;
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.FileReader;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.mapred.AvroJob;
+import org.apache.avro.mapred.AvroRecordReader;
+import org.apache.avro.mapred.AvroWrapper;
+import org.apache.avro.mapred.FsInput;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Reads records of a file split, resolving the writer schema of the file against the reader schema of the job. Both
+ * schemas are interned in {@link SchemaCache}, so files written with the same schema share a single resolver.
+ * <p>
+ * Virtual partition fields of the reader schema are set to values of the {@code key=value} segments of the file path.
+ * <p>
+ * When the file has a {@link BlockIndex}, blocks that can't match the source predicate are skipped without being read.
+ * <p>
+ * With {@value #READ_AHEAD_BLOCKS} set, blocks are read and decompressed ahead by a {@link ReadAheadReader}, holding
+ * at most {@value #READ_AHEAD_MEMORY} bytes.
+ */
+public class AvroSchemeRecordReader extends AvroRecordReader<IndexedRecord> {
+    public static final String READ_AHEAD_BLOCKS = "cascading.avro.source.read.ahead.blocks";
+    public static final String READ_AHEAD_MEMORY = "cascading.avro.source.read.ahead.memory";
+
+    public static final long DEFAULT_READ_AHEAD_MEMORY = 64L << 20;
+
+    private final Path path;
+    private final FileReader<IndexedRecord> reader;
+    private final int[] partitionPositions;
+    private final Utf8[] partitionValues;
+    private BlockIndex index;
+    private long blockRemaining;
+
+    public AvroSchemeRecordReader(JobConf job, FileSplit split) throws IOException {
+        this(open(job, split), split, job);
+    }
+
+    private AvroSchemeRecordReader(FileReader<IndexedRecord> reader, FileSplit split, JobConf job) throws IOException {
+        super(reader, split);
+        this.reader = reader;
+        path = split.getPath();
+
+        final String[] virtualFields = job.getStrings(Partitions.VIRTUAL_FIELDS);
+        if(virtualFields == null) {
+            partitionPositions = null;
+            partitionValues = null;
+        } else {
+            final Schema readerSchema = SchemaCache.parse(job.get(AvroJob.INPUT_SCHEMA));
+            final Map<String, Utf8> values = Partitions.values(path);
+            partitionPositions = new int[virtualFields.length];
+            partitionValues = new Utf8[virtualFields.length];
+            for(int i = 0; i < virtualFields.length; i++) {
+                partitionPositions[i] = readerSchema.getField(virtualFields[i]).pos();
+                partitionValues[i] = values.get(virtualFields[i]);
+            }
+        }
+
+        final AvroPredicate predicate = ConfSerialization.get(job, AvroSchemeInputFormat.PREDICATE);
+        if(predicate != null && (reader instanceof DataFileReader || reader instanceof ReadAheadReader)) {
+            index = BlockIndex.read(job, path, predicate);
+        }
+    }
+
+    private static FileReader<IndexedRecord> open(JobConf job, FileSplit split) throws IOException {
+        final String readerSchema = job.get(AvroJob.INPUT_SCHEMA);
+        if(readerSchema == null) {
+            throw new IllegalStateException("Missing " + AvroJob.INPUT_SCHEMA + " in job configuration");
+        }
+        final CachingDatumReader datumReader = new CachingDatumReader(SchemaCache.parse(readerSchema));
+        final int readAhead = job.getInt(READ_AHEAD_BLOCKS, 0);
+        if(readAhead > 0) {
+            return ReadAheadReader.open(job, split.getPath(), datumReader, split.getStart() + split.getLength(),
+                    readAhead, job.getLong(READ_AHEAD_MEMORY, DEFAULT_READ_AHEAD_MEMORY));
+        }
+        return DataFileReader.openReader(new FsInput(split.getPath(), job), datumReader);
+    }
+
+    @Override
+    public boolean next(AvroWrapper<IndexedRecord> wrapper, NullWritable ignore) throws IOException {
+        if(index != null && blockRemaining == 0 && !skipBlocks()) {
+            return false;
+        }
+        try {
+            if(!super.next(wrapper, ignore)) {
+                return false;
+            }
+        } catch(AvroTypeException e) {
+            throw new IOException("Can't read " + path + " written with incompatible schema " + reader.getSchema(), e);
+        }
+        blockRemaining--;
+        if(partitionPositions != null) {
+            final IndexedRecord record = wrapper.datum();
+            for(int i = 0; i < partitionPositions.length; i++) {
+                record.put(partitionPositions[i], partitionValues[i]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Seeks past skipped blocks once the current block is read, returns false when no block of the file is left
+     */
+    private boolean skipBlocks() throws IOException {
+        // the reader is between blocks, so the last sync is the start of the next block
+        final int block = index.find(previousSync());
+        if(block < 0) {
+            // end of file or an index of another file
+            index = null;
+            return true;
+        }
+        int next = block;
+        while(next < index.size() && index.isSkipped(next)) {
+            next++;
+        }
+        if(next == index.size()) {
+            return false;
+        }
+        if(next != block) {
+            seek(index.offset(next));
+        }
+        blockRemaining = index.count(next);
+        return true;
+    }
+
+    private long previousSync() {
+        if(reader instanceof ReadAheadReader) {
+            return ((ReadAheadReader)reader).previousSync();
+        }
+        return ((DataFileReader<IndexedRecord>)reader).previousSync();
+    }
+
+    private void seek(long position) throws IOException {
+        if(reader instanceof ReadAheadReader) {
+            ((ReadAheadReader)reader).seek(position);
+        } else {
+            ((DataFileReader<IndexedRecord>)reader).seek(position);
+        }
+    }
+
+    /**
+     * Datum reader that replaces writer schemas of files with their interned instances
+     */
+    private static final class CachingDatumReader extends SpecificDatumReader<IndexedRecord> {
+        private CachingDatumReader(Schema readerSchema) {
+            super(readerSchema);
+        }
+
+        @Override
+        public void setSchema(Schema writerSchema) {
+            super.setSchema(SchemaCache.intern(writerSchema));
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.mapred.AvroJob;
+import org.apache.avro.mapred.AvroOutputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+
+import java.io.Serializable;
+
+/**
+ * Output settings used by {@link AvroScheme} when sinking. Defaults to deflate level 6 with 1MB sync interval.
+ * <p>
+ * Each setting can be overridden per flow by setting the corresponding property in the job configuration:
+ * <ul>
+ *     <li>{@value #CODEC} - codec name, one of null, deflate or snappy</li>
+ *     <li>{@value #LEVEL} - deflate level, 1 to 9</li>
+ *     <li>{@value #SYNC_INTERVAL} - approximate size of a block in bytes</li>
+ *     <li>{@value #COMPRESSION_THREADS} - threads compressing deflate blocks in the background, 0 compresses blocks on
+ *     the task thread</li>
+ *     <li>{@value #MAX_FILE_SIZE} - approximate size of an output file in bytes, a task writes further records to a new
+ *     file once its current file reaches it, 0 writes a single file per task</li>
+ * </ul>
+ */
+@SuppressWarnings("deprecation")
+public class AvroSinkConfig implements Serializable {
+    public static final String CODEC = "cascading.avro.sink.codec";
+    public static final String LEVEL = "cascading.avro.sink.level";
+    public static final String SYNC_INTERVAL = "cascading.avro.sink.sync.interval";
+    public static final String COMPRESSION_THREADS = "cascading.avro.sink.compression.threads";
+    public static final String MAX_FILE_SIZE = "cascading.avro.sink.max.file.size";
+
+    public static final int DEFAULT_LEVEL = 6;
+    public static final int DEFAULT_SYNC_INTERVAL = 1048576;
+
+    private String codec = DataFileConstants.DEFLATE_CODEC;
+    private int level = DEFAULT_LEVEL;
+    private int syncInterval = DEFAULT_SYNC_INTERVAL;
+    private int compressionThreads;
+    private long maxFileSize;
+
+    public AvroSinkConfig() {
+    }
+
+    public AvroSinkConfig(String codec, int level, int syncInterval) {
+        setCodec(codec);
+        setLevel(level);
+        setSyncInterval(syncInterval);
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    /**
+     * Sets codec name, see {@link DataFileConstants} for supported names
+     */
+    public AvroSinkConfig setCodec(String codec) {
+        // fail early on unknown codecs
+        CodecFactory.fromString(codec);
+        this.codec = codec;
+        return this;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Sets compression level, only used by deflate codec
+     */
+    public AvroSinkConfig setLevel(int level) {
+        if(level < 1 || level > 9) {
+            throw new IllegalArgumentException("Compression level must be between 1 and 9, found " + level);
+        }
+        this.level = level;
+        return this;
+    }
+
+    public int getSyncInterval() {
+        return syncInterval;
+    }
+
+    /**
+     * Sets approximate number of bytes in a block between sync markers
+     */
+    public AvroSinkConfig setSyncInterval(int syncInterval) {
+        if(syncInterval <= 0) {
+            throw new IllegalArgumentException("Sync interval must be positive, found " + syncInterval);
+        }
+        this.syncInterval = syncInterval;
+        return this;
+    }
+
+    public int getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    /**
+     * Sets number of threads compressing blocks while the task encodes the next ones, only used by deflate codec
+     */
+    public AvroSinkConfig setCompressionThreads(int compressionThreads) {
+        if(compressionThreads < 0) {
+            throw new IllegalArgumentException("Compression threads can't be negative, found " + compressionThreads);
+        }
+        this.compressionThreads = compressionThreads;
+        return this;
+    }
+
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    /**
+     * Sets number of bytes after which a task closes its output file and continues with a new one, 0 doesn't limit the
+     * size of files. Files exceed the size by the block in progress, and with compression threads by the blocks still
+     * being compressed.
+     */
+    public AvroSinkConfig setMaxFileSize(long maxFileSize) {
+        if(maxFileSize < 0) {
+            throw new IllegalArgumentException("Maximum file size can't be negative, found " + maxFileSize);
+        }
+        this.maxFileSize = maxFileSize;
+        return this;
+    }
+
+    /**
+     * Applies the settings to the job, giving precedence to properties already set in the job configuration
+     */
+    public void configure(JobConf conf) {
+        final String codec = conf.get(CODEC, this.codec);
+        if(DataFileConstants.NULL_CODEC.equals(codec)) {
+            FileOutputFormat.setCompressOutput(conf, false);
+        } else {
+            AvroOutputFormat.setDeflateLevel(conf, conf.getInt(LEVEL, level));
+            AvroJob.setOutputCodec(conf, codec);
+        }
+        AvroOutputFormat.setSyncInterval(conf, conf.getInt(SYNC_INTERVAL, syncInterval));
+        conf.setInt(COMPRESSION_THREADS, conf.getInt(COMPRESSION_THREADS, compressionThreads));
+        conf.setLong(MAX_FILE_SIZE, conf.getLong(MAX_FILE_SIZE, maxFileSize));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) {
+            return true;
+        }
+        if(o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final AvroSinkConfig that = (AvroSinkConfig)o;
+        return level == that.level && syncInterval == that.syncInterval && compressionThreads == that.compressionThreads
+                && maxFileSize == that.maxFileSize && codec.equals(that.codec);
+    }
+
+    @Override
+    public int hashCode() {
+        final int result = 31 * (31 * (31 * codec.hashCode() + level) + syncInterval) + compressionThreads;
+        return 31 * result + (int)(maxFileSize ^ (maxFileSize >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "AvroSinkConfig[codec=" + codec + ", level=" + level + ", syncInterval=" + syncInterval
+                + ", compressionThreads=" + compressionThreads + ", maxFileSize=" + maxFileSize + "]";
+    }
+}
@@ -0,0 +1,132 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import cascading.tuple.Tuple;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericFixed;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.hadoop.io.BytesWritable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Base for schema specific converters between tuples and Avro records, normally generated by the cascading-avro
+ * maven plugin. Tuples are ordered the same way as the fields of the schema. Converters are not thread safe and are
+ * created once per task by {@link AvroScheme#setConverter(Class)}, so implementations need a public no-arg constructor.
+ */
+public abstract class AvroTupleConverter {
+    private final Schema schema;
+
+    protected AvroTupleConverter(Schema schema) {
+        this.schema = schema;
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Copies values of the record into the tuple
+     */
+    public abstract void fromAvro(IndexedRecord record, Tuple tuple);
+
+    /**
+     * Copies values of the tuple into the record
+     */
+    public abstract void toAvro(Tuple tuple, IndexedRecord record);
+
+    protected Object notNull(int pos, Object val) {
+        if(val == null) {
+            throw new NullPointerException("Field " + schema.getFields().get(pos).name() + " is not nullable");
+        }
+        return val;
+    }
+
+    /**
+     * Detaches the bytes value from the record, so the reader allocates a new buffer for the next record, and wraps
+     * its array without copying when the buffer covers all of it
+     */
+    protected static BytesWritable fromBytes(IndexedRecord record, int pos) {
+        final ByteBuffer buffer = (ByteBuffer)record.get(pos);
+        record.put(pos, null);
+        if(buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                && buffer.remaining() == buffer.array().length) {
+            return new BytesWritable(buffer.array());
+        }
+        final byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return new BytesWritable(data);
+    }
+
+    /**
+     * Detaches the fixed value from the record, so the reader allocates a new instance for the next record, and wraps
+     * its array without copying
+     */
+    protected static BytesWritable fromFixed(IndexedRecord record, int pos) {
+        final GenericFixed fixed = (GenericFixed)record.get(pos);
+        record.put(pos, null);
+        return new BytesWritable(fixed.bytes());
+    }
+
+    protected static ByteBuffer toBytes(Object val) {
+        final BytesWritable bytes = (BytesWritable)val;
+        return ByteBuffer.wrap(bytes.getBytes(), 0, bytes.getLength());
+    }
+
+    protected static GenericData.Fixed toFixed(GenericData.Fixed fixed, Object val) {
+        final BytesWritable bytes = (BytesWritable)val;
+        final int size = fixed.getSchema().getFixedSize();
+        if(bytes.getLength() != size) {
+            throw new IllegalArgumentException("Expected " + size + " bytes for " + fixed.getSchema().getFullName()
+                    + ", found " + bytes.getLength());
+        }
+        fixed.bytes(bytes.getBytes());
+        return fixed;
+    }
+
+    protected static Long toLong(Object val) {
+        return val instanceof Long ? (Long)val : Long.valueOf(((Number)val).longValue());
+    }
+
+    protected static Integer toInt(Object val) {
+        return val instanceof Integer ? (Integer)val : Integer.valueOf(((Number)val).intValue());
+    }
+
+    protected static Double toDouble(Object val) {
+        return val instanceof Double ? (Double)val : Double.valueOf(((Number)val).doubleValue());
+    }
+
+    protected static Float toFloat(Object val) {
+        return val instanceof Float ? (Float)val : Float.valueOf(((Number)val).floatValue());
+    }
+
+    /**
+     * Finds schema of a fixed field, which may be a component of a nullable union
+     */
+    protected static Schema fixedSchema(Schema schema, int pos) {
+        final Schema field = schema.getFields().get(pos).schema();
+        if(field.getType() == Schema.Type.UNION) {
+            for(Schema component : field.getTypes()) {
+                if(component.getType() == Schema.Type.FIXED) {
+                    return component;
+                }
+            }
+        }
+        return field;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.io.BytesWritable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts non-null tuple values of a single field to their Avro representation. Writers are resolved once per field,
+ * so sinking a record doesn't have to dispatch on the field type.
+ */
+abstract class AvroValueWriter {
+    abstract Object toAvro(Object val);
+
+    static AvroValueWriter forField(AvroSchemeBase.FieldType typeInfo) {
+        switch(typeInfo.type) {
+            case STRING:
+                return new StringWriter();
+            case FIXED:
+                return new FixedWriter(fixedSchema(typeInfo.schema));
+            case BYTES:
+                return new BytesWriter();
+            case LONG:
+                return new LongWriter();
+            case INT:
+                return new IntWriter();
+            case DOUBLE:
+                return new DoubleWriter();
+            case FLOAT:
+                return new FloatWriter();
+        }
+        return new IdentityWriter();
+    }
+
+    private static Schema fixedSchema(Schema schema) {
+        if(schema.getType() == Schema.Type.UNION) {
+            for(Schema component : schema.getTypes()) {
+                if(component.getType() == Schema.Type.FIXED) {
+                    return component;
+                }
+            }
+        }
+        return schema;
+    }
+
+    private static final class IdentityWriter extends AvroValueWriter {
+        @Override
+        Object toAvro(Object val) {
+            return val;
+        }
+    }
+
+    /**
+     * Copies bytes of lazy strings into a single reused instance instead of decoding them
+     */
+    private static final class StringWriter extends AvroValueWriter {
+        private final Utf8 utf8 = new Utf8();
+
+        @Override
+        Object toAvro(Object val) {
+            if(val instanceof LazyString) {
+                final LazyString lazy = (LazyString)val;
+                utf8.setByteLength(lazy.getByteLength());
+                System.arraycopy(lazy.getBytes(), 0, utf8.getBytes(), 0, lazy.getByteLength());
+                return utf8;
+            }
+            return val.toString();
+        }
+    }
+
+    /**
+     * Reuses a single fixed instance wrapping the backing array of the value, the record is encoded before the next
+     * value is converted. Avro writes as many bytes as the schema size, so values of other lengths are rejected
+     * instead of being padded or truncated.
+     */
+    private static final class FixedWriter extends AvroValueWriter {
+        private final GenericData.Fixed fixed;
+        private final int size;
+
+        private FixedWriter(Schema schema) {
+            fixed = new GenericData.Fixed(schema);
+            size = schema.getFixedSize();
+        }
+
+        @Override
+        Object toAvro(Object val) {
+            final BytesWritable bytes = (BytesWritable)val;
+            if(bytes.getLength() != size) {
+                throw new IllegalArgumentException("Expected " + size + " bytes for " + fixed.getSchema().getFullName()
+                        + ", found " + bytes.getLength());
+            }
+            fixed.bytes(bytes.getBytes());
+            return fixed;
+        }
+    }
+
+    private static final class BytesWriter extends AvroValueWriter {
+        @Override
+        Object toAvro(Object val) {
+            final BytesWritable bytes = (BytesWritable)val;
+            return ByteBuffer.wrap(bytes.getBytes(), 0, bytes.getLength());
+        }
+    }
+
+    private static final class LongWriter extends AvroValueWriter {
+        @Override
+        Object toAvro(Object val) {
+            return val instanceof Long ? val : Long.valueOf(((Number)val).longValue());
+        }
+    }
+
+    private static final class IntWriter extends AvroValueWriter {
+        @Override
+        Object toAvro(Object val) {
+            return val instanceof Integer ? val : Integer.valueOf(((Number)val).intValue());
+        }
+    }
+
+    private static final class DoubleWriter extends AvroValueWriter {
+        @Override
+        Object toAvro(Object val) {
+            return val instanceof Double ? val : Double.valueOf(((Number)val).doubleValue());
+        }
+    }
+
+    private static final class FloatWriter extends AvroValueWriter {
+        @Override
+        Object toAvro(Object val) {
+            return val instanceof Float ? val : Float.valueOf(((Number)val).floatValue());
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.file.FileReader;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.mapred.FsInput;
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+import org.codehaus.jackson.node.NullNode;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Statistics of the blocks of a data file, stored next to it in a hidden Avro file named {@code .<name>.index}. Each
+ * entry holds the offset and record count of a block, the minimum and maximum non-null values of the key fields and
+ * their null counts. Readers seek past blocks that can't match the source predicate.
+ */
+final class BlockIndex {
+    static final String FIELDS = "cascading.avro.sink.index.fields";
+
+    static final EnumSet<Schema.Type> KEY_TYPES = EnumSet.of(Schema.Type.BOOLEAN, Schema.Type.DOUBLE,
+            Schema.Type.FLOAT, Schema.Type.INT, Schema.Type.LONG, Schema.Type.STRING);
+
+    private static final String LENGTH = "cascading.avro.index.length";
+
+    private final long[] offsets;
+    private final long[] counts;
+    private final boolean[] skipped;
+
+    private BlockIndex(long[] offsets, long[] counts, boolean[] skipped) {
+        this.offsets = offsets;
+        this.counts = counts;
+        this.skipped = skipped;
+    }
+
+    static Path path(Path data) {
+        return new Path(data.getParent(), "." + data.getName() + ".index");
+    }
+
+    /**
+     * Returns the non-null schema of a key field, failing on types without a meaningful order
+     */
+    static Schema keySchema(Schema.Field field) {
+        Schema schema = field.schema();
+        if(schema.getType() == Schema.Type.UNION) {
+            final List<Schema> types = schema.getTypes();
+            if(types.size() == 2 && types.get(0).getType() == Schema.Type.NULL) {
+                schema = types.get(1);
+            } else if(types.size() == 2 && types.get(1).getType() == Schema.Type.NULL) {
+                schema = types.get(0);
+            }
+        }
+        if(!KEY_TYPES.contains(schema.getType())) {
+            throw new IllegalArgumentException("Can't index " + field.name() + " of type " + schema.getType());
+        }
+        return schema;
+    }
+
+    /**
+     * Creates schema of index entries for given key fields of the data schema
+     */
+    private static Schema schema(Schema dataSchema, String[] keys) {
+        final List<Schema.Field> values = new ArrayList<Schema.Field>(keys.length);
+        final List<Schema.Field> nulls = new ArrayList<Schema.Field>(keys.length);
+        for(String key : keys) {
+            final Schema.Field field = dataSchema.getField(key);
+            if(field == null) {
+                throw new IllegalArgumentException("Can't find index field " + key + " in " + dataSchema.getFullName());
+            }
+            final Schema nullable = Schema.createUnion(Arrays.asList(Schema.create(Schema.Type.NULL), keySchema(field)));
+            values.add(new Schema.Field(key, nullable, null, NullNode.getInstance()));
+            nulls.add(new Schema.Field(key, Schema.create(Schema.Type.LONG), null, null));
+        }
+        final Schema valueSchema = Schema.createRecord("Keys", null, null, false);
+        valueSchema.setFields(values);
+        final Schema nullSchema = Schema.createRecord("Nulls", null, null, false);
+        nullSchema.setFields(nulls);
+
+        final Schema result = Schema.createRecord("Block", null, null, false);
+        result.setFields(Arrays.asList(
+                new Schema.Field("offset", Schema.create(Schema.Type.LONG), null, null),
+                new Schema.Field("count", Schema.create(Schema.Type.LONG), null, null),
+                new Schema.Field("min", valueSchema, null, null),
+                new Schema.Field("max", valueSchema, null, null),
+                new Schema.Field("nulls", nullSchema, null, null)));
+        return result;
+    }
+
+    /**
+     * Reads the index of a data file and marks blocks that can't match the predicate. Returns null when the file has
+     * no index, the index is stale or the predicate doesn't use any key field.
+     */
+    static BlockIndex read(JobConf job, Path data, AvroPredicate predicate) throws IOException {
+        final Path path = path(data);
+        final FileSystem fs = path.getFileSystem(job);
+        final FileReader<GenericData.Record> reader;
+        try {
+            reader = DataFileReader.openReader(new FsInput(path, job), new GenericDatumReader<GenericData.Record>());
+        } catch(FileNotFoundException e) {
+            return null;
+        }
+        try {
+            final DataFileReader<GenericData.Record> dataFileReader = (DataFileReader<GenericData.Record>)reader;
+            if(dataFileReader.getMetaLong(LENGTH) != fs.getFileStatus(data).getLen()) {
+                return null;
+            }
+            final Schema keySchema = reader.getSchema().getField("min").schema();
+            final Set<String> keys = new HashSet<String>();
+            for(Schema.Field field : keySchema.getFields()) {
+                keys.add(field.name());
+            }
+            final AvroPredicate restricted = restrict(predicate, keys);
+            if(restricted == null) {
+                return null;
+            }
+            restricted.bind(keySchema);
+
+            final List<GenericData.Record> entries = new ArrayList<GenericData.Record>();
+            for(GenericData.Record entry : reader) {
+                entries.add(entry);
+            }
+            final long[] offsets = new long[entries.size()];
+            final long[] counts = new long[offsets.length];
+            final boolean[] skipped = new boolean[offsets.length];
+            for(int i = 0; i < offsets.length; i++) {
+                final GenericData.Record entry = entries.get(i);
+                offsets[i] = (Long)entry.get(0);
+                counts[i] = (Long)entry.get(1);
+                skipped[i] = restricted.matches((IndexedRecord)entry.get(2), (IndexedRecord)entry.get(3),
+                        (IndexedRecord)entry.get(4), counts[i]) == Boolean.FALSE;
+            }
+            return new BlockIndex(offsets, counts, skipped);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Drops parts of the predicate using other fields than the keys, keeping a predicate matched by a superset of the
+     * records. Returns null when nothing is left.
+     */
+    static AvroPredicate restrict(AvroPredicate predicate, Set<String> keys) {
+        final Set<String> used = new HashSet<String>();
+        predicate.collectFields(used);
+        if(keys.containsAll(used)) {
+            return predicate;
+        }
+        if(predicate instanceof AvroPredicate.Junction && ((AvroPredicate.Junction)predicate).conjunction) {
+            final List<AvroPredicate> restricted = new ArrayList<AvroPredicate>();
+            for(AvroPredicate component : ((AvroPredicate.Junction)predicate).getPredicates()) {
+                final AvroPredicate result = restrict(component, keys);
+                if(result != null) {
+                    restricted.add(result);
+                }
+            }
+            if(!restricted.isEmpty()) {
+                return AvroPredicate.and(restricted.toArray(new AvroPredicate[restricted.size()]));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the block starting at given offset, returns a negative value when there is none
+     */
+    int find(long offset) {
+        return Arrays.binarySearch(offsets, offset);
+    }
+
+    int size() {
+        return offsets.length;
+    }
+
+    long offset(int block) {
+        return offsets[block];
+    }
+
+    long count(int block) {
+        return counts[block];
+    }
+
+    boolean isSkipped(int block) {
+        return skipped[block];
+    }
+
+    /**
+     * Collects statistics of the blocks written to a data file
+     */
+    static final class Builder {
+        private final Schema schema;
+        private final int[] positions;
+        private final Schema[] keySchemas;
+        private final List<GenericData.Record> entries = new ArrayList<GenericData.Record>();
+        private int placed;
+        private long blockStart;
+        private long count;
+        private GenericData.Record min;
+        private GenericData.Record max;
+        private GenericData.Record nulls;
+
+        Builder(Schema dataSchema, String[] keys, long blockStart) {
+            schema = schema(dataSchema, keys);
+            positions = new int[keys.length];
+            keySchemas = new Schema[keys.length];
+            for(int i = 0; i < keys.length; i++) {
+                final Schema.Field field = dataSchema.getField(keys[i]);
+                positions[i] = field.pos();
+                keySchemas[i] = keySchema(field);
+            }
+            this.blockStart = blockStart;
+            reset();
+        }
+
+        private void reset() {
+            count = 0;
+            min = new GenericData.Record(schema.getField("min").schema());
+            max = new GenericData.Record(schema.getField("max").schema());
+            nulls = new GenericData.Record(schema.getField("nulls").schema());
+            for(int i = 0; i < positions.length; i++) {
+                nulls.put(i, 0L);
+            }
+        }
+
+        void add(IndexedRecord record) {
+            count++;
+            for(int i = 0; i < positions.length; i++) {
+                final Object val = record.get(positions[i]);
+                if(val == null) {
+                    nulls.put(i, (Long)nulls.get(i) + 1);
+                    continue;
+                }
+                final Object low = min.get(i);
+                if(low == null || GenericData.get().compare(val, low, keySchemas[i]) < 0) {
+                    min.put(i, copy(val));
+                }
+                final Object high = max.get(i);
+                if(high == null || GenericData.get().compare(val, high, keySchemas[i]) > 0) {
+                    max.put(i, copy(val));
+                }
+            }
+        }
+
+        private static Object copy(Object val) {
+            // the sink reuses Utf8 instances between records
+            return val instanceof Utf8 ? new Utf8(val.toString()) : val;
+        }
+
+        /**
+         * Ends the current block, the next one starts at given offset
+         */
+        void endBlock(long nextBlockStart) {
+            if(count > 0) {
+                final GenericData.Record entry = new GenericData.Record(schema);
+                entry.put(0, blockStart);
+                entry.put(1, count);
+                entry.put(2, min);
+                entry.put(3, max);
+                entry.put(4, nulls);
+                entries.add(entry);
+                reset();
+            }
+            blockStart = nextBlockStart;
+        }
+
+        /**
+         * Ends the current block before its offset is known, for writers that write blocks after compressing them in
+         * the background. Offsets are set in the same order by {@link #placeBlock(long)}.
+         */
+        void endBlock() {
+            endBlock(-1);
+        }
+
+        /**
+         * Sets offset of the oldest block ended by {@link #endBlock()} that isn't placed yet
+         */
+        void placeBlock(long offset) {
+            entries.get(placed++).put(0, offset);
+        }
+
+        /**
+         * Writes the index of a data file of given length
+         */
+        void write(JobConf job, Path data, long length) throws IOException {
+            final Path path = path(data);
+            final DataFileWriter<GenericData.Record> writer =
+                    new DataFileWriter<GenericData.Record>(new GenericDatumWriter<GenericData.Record>(schema));
+            writer.setMeta(LENGTH, length);
+            writer.create(schema, path.getFileSystem(job).create(path));
+            try {
+                for(GenericData.Record entry : entries) {
+                    writer.append(entry);
+                }
+            } finally {
+                writer.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import cascading.tuple.Fields;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.util.Utf8;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Values of a batch of records copied per field into primitive arrays, as sourced by {@link AvroBatchScheme}. Rows
+ * {@code 0} to {@code size() - 1} of each column are valid.
+ * <p>
+ * Columns hold the following arrays, depending on the type of the field:
+ * <ul>
+ *     <li>boolean - {@link #getBooleans(int)}</li>
+ *     <li>double - {@link #getDoubles(int)}</li>
+ *     <li>float - {@link #getFloats(int)}</li>
+ *     <li>int - {@link #getInts(int)}</li>
+ *     <li>long - {@link #getLongs(int)}</li>
+ *     <li>string - {@link #getCodes(int)}, indexes into {@link #getDictionary(int)} of the batch</li>
+ * </ul>
+ * Null values are marked in a bitmap, see {@link #isNull(int, int)}, and hold zero, false or code -1 in the arrays.
+ * <p>
+ * A source reuses a single batch, so it may only be used until the next batch is read. Batches aren't comparable,
+ * so they can't be grouped or sorted.
+ */
+public final class ColumnBatch {
+    private final Fields fields;
+    private final AvroSchemeBase.FieldType[] types;
+    private final int capacity;
+    private final Object[] columns;
+    private final long[][] nulls;
+    private final List<List<String>> dictionaries = new ArrayList<List<String>>();
+    private final List<Map<Utf8, Integer>> codes = new ArrayList<Map<Utf8, Integer>>();
+    private int size;
+
+    ColumnBatch(Fields fields, AvroSchemeBase.FieldType[] types, int capacity) {
+        this.fields = fields;
+        this.types = types;
+        this.capacity = capacity;
+        columns = new Object[types.length];
+        nulls = new long[types.length][(capacity + 63) >>> 6];
+        for(int i = 0; i < types.length; i++) {
+            columns[i] = column(types[i].type, capacity);
+            dictionaries.add(types[i].type == Schema.Type.STRING ? new ArrayList<String>() : null);
+            codes.add(types[i].type == Schema.Type.STRING ? new HashMap<Utf8, Integer>() : null);
+        }
+    }
+
+    private static Object column(Schema.Type type, int capacity) {
+        switch(type) {
+            case BOOLEAN:
+                return new boolean[capacity];
+            case DOUBLE:
+                return new double[capacity];
+            case FLOAT:
+                return new float[capacity];
+            case INT:
+            case STRING:
+                return new int[capacity];
+            case LONG:
+                return new long[capacity];
+            case NULL:
+                return null;
+        }
+        throw new IllegalArgumentException("Can't read fields of type " + type + " in batches");
+    }
+
+    public Fields getFields() {
+        return fields;
+    }
+
+    /**
+     * Returns position of the column holding given field
+     */
+    public int getColumn(Comparable field) {
+        return fields.getPos(field);
+    }
+
+    public Schema.Type getType(int column) {
+        return types[column].type;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isNull(int column, int row) {
+        return (nulls[column][row >>> 6] & 1L << row) != 0;
+    }
+
+    public boolean[] getBooleans(int column) {
+        return (boolean[])columns[column];
+    }
+
+    public double[] getDoubles(int column) {
+        return (double[])columns[column];
+    }
+
+    public float[] getFloats(int column) {
+        return (float[])columns[column];
+    }
+
+    public int[] getInts(int column) {
+        return (int[])column(column, Schema.Type.INT);
+    }
+
+    public long[] getLongs(int column) {
+        return (long[])columns[column];
+    }
+
+    /**
+     * Returns dictionary codes of a string column
+     */
+    public int[] getCodes(int column) {
+        return (int[])column(column, Schema.Type.STRING);
+    }
+
+    /**
+     * Returns distinct values of a string column in this batch, indexed by their codes
+     */
+    public List<String> getDictionary(int column) {
+        return dictionaries.get(column);
+    }
+
+    /**
+     * Returns value of a string column, decoded once per batch
+     */
+    public String getString(int column, int row) {
+        final int code = getCodes(column)[row];
+        return code < 0 ? null : dictionaries.get(column).get(code);
+    }
+
+    private Object column(int column, Schema.Type type) {
+        if(types[column].type != type) {
+            throw new IllegalArgumentException("Column " + fields.get(column) + " is " + types[column].type + ", not " + type);
+        }
+        return columns[column];
+    }
+
+    void clear() {
+        for(int i = 0; i < types.length; i++) {
+            Arrays.fill(nulls[i], 0L);
+            if(types[i].type == Schema.Type.STRING) {
+                dictionaries.get(i).clear();
+                codes.get(i).clear();
+            }
+        }
+        size = 0;
+    }
+
+    boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Appends values of the record as the next row
+     */
+    void add(IndexedRecord record) {
+        final int row = size++;
+        for(int i = 0; i < types.length; i++) {
+            final Object val = record.get(types[i].pos);
+            if(val == null) {
+                nulls[i][row >>> 6] |= 1L << row;
+            }
+            switch(types[i].type) {
+                case BOOLEAN:
+                    ((boolean[])columns[i])[row] = val != null && (Boolean)val;
+                    break;
+                case DOUBLE:
+                    ((double[])columns[i])[row] = val == null ? 0 : (Double)val;
+                    break;
+                case FLOAT:
+                    ((float[])columns[i])[row] = val == null ? 0 : (Float)val;
+                    break;
+                case INT:
+                    ((int[])columns[i])[row] = val == null ? 0 : (Integer)val;
+                    break;
+                case LONG:
+                    ((long[])columns[i])[row] = val == null ? 0 : (Long)val;
+                    break;
+                case STRING:
+                    ((int[])columns[i])[row] = val == null ? -1 : code(i, val);
+                    break;
+            }
+        }
+    }
+
+    private int code(int column, Object val) {
+        final Map<Utf8, Integer> columnCodes = codes.get(column);
+        final Utf8 key = val instanceof Utf8 ? (Utf8)val : new Utf8(val.toString());
+        final Integer code = columnCodes.get(key);
+        if(code != null) {
+            return code;
+        }
+        final List<String> dictionary = dictionaries.get(column);
+        final int result = dictionary.size();
+        // the reader reuses the value for the next record
+        columnCodes.put(new Utf8(key), result);
+        dictionary.add(key.toString());
+        return result;
+    }
+}
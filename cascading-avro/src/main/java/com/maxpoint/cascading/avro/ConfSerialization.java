@@ -0,0 +1,61 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.util.StringUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * Stores serializable objects in job configuration as hex encoded strings
+ */
+final class ConfSerialization {
+    private ConfSerialization() {}
+
+    static void set(JobConf conf, String key, Serializable value) throws IOException {
+        if(value == null) {
+            conf.set(key, "");
+            return;
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(value);
+        out.close();
+        conf.set(key, StringUtils.byteToHexString(bytes.toByteArray()));
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T get(JobConf conf, String key) throws IOException {
+        final String value = conf.get(key);
+        if(value == null || value.length() == 0) {
+            return null;
+        }
+        final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(StringUtils.hexStringToByte(value)));
+        try {
+            return (T)in.readObject();
+        } catch(ClassNotFoundException e) {
+            throw new IOException("Can't read " + key, e);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import org.apache.hadoop.io.Text;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Formats tuples as delimited lines straight into a reused buffer. Produces the same lines as
+ * {@link cascading.scheme.TextDelimited}: nulls are empty, quotes in strings are doubled and strings containing the
+ * delimiter are quoted. Other values are written the way their {@code toString()} prints them.
+ */
+final class DelimitedFormatter {
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] MIN_LONG = {'-', '9', '2', '2', '3', '3', '7', '2', '0', '3', '6', '8', '5', '4', '7',
+            '7', '5', '8', '0', '8'};
+
+    private final byte[] delimiter;
+    private final int quote;
+    private final Text line = new Text();
+    private byte[] buffer = new byte[256];
+    private int length;
+    private Fields incomingFields;
+    private int[] positions;
+
+    /**
+     * Creates formatter with an optional quote, which must be a single ASCII character
+     */
+    DelimitedFormatter(String delimiter, String quote) {
+        if(delimiter.length() == 0) {
+            throw new IllegalArgumentException("Delimiter can't be empty");
+        }
+        if(quote != null && (quote.length() != 1 || quote.charAt(0) > 0x7f || delimiter.contains(quote))) {
+            throw new IllegalArgumentException("Can't format quotes " + quote + " with delimiter " + delimiter);
+        }
+        try {
+            this.delimiter = delimiter.getBytes("UTF-8");
+        } catch(UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        this.quote = quote == null ? -1 : quote.charAt(0);
+    }
+
+    /**
+     * Returns line of the sink fields of the entry. The same instance is returned for every line, so it must be
+     * written before the next call.
+     */
+    Text format(TupleEntry tupleEntry, Fields sinkFields) {
+        final Fields incoming = tupleEntry.getFields();
+        if(incoming != incomingFields) {
+            positions = new int[sinkFields.size()];
+            for(int i = 0; i < positions.length; i++) {
+                positions[i] = incoming.getPos(sinkFields.get(i));
+            }
+            incomingFields = incoming;
+        }
+
+        final Tuple tuple = tupleEntry.getTuple();
+        length = 0;
+        for(int i = 0; i < positions.length; i++) {
+            if(i > 0) {
+                append(delimiter);
+            }
+            final Object val = tuple.getObject(positions[i]);
+            if(val instanceof String) {
+                appendString((String)val);
+            } else if(val instanceof Integer) {
+                appendLong((Integer)val);
+            } else if(val instanceof Long) {
+                appendLong((Long)val);
+            } else if(val instanceof Boolean) {
+                append((Boolean)val ? TRUE : FALSE);
+            } else if(val != null) {
+                appendChars(val.toString(), false);
+            }
+        }
+        line.set(buffer, 0, length);
+        return line;
+    }
+
+    private void ensure(int extra) {
+        if(length + extra > buffer.length) {
+            final byte[] grown = new byte[Math.max(length + extra, 2 * buffer.length)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+    }
+
+    private void append(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void appendLong(long val) {
+        if(val == Long.MIN_VALUE) {
+            append(MIN_LONG);
+            return;
+        }
+        ensure(20);
+        if(val < 0) {
+            buffer[length++] = '-';
+            val = -val;
+        }
+        int digits = 1;
+        for(long rest = val / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for(int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (byte)('0' + val % 10);
+            val /= 10;
+        }
+        length += digits;
+    }
+
+    /**
+     * Appends a string value, doubling quotes and quoting it when it contains the delimiter
+     */
+    private void appendString(String val) {
+        final int start = length;
+        appendChars(val, quote >= 0);
+        if(quote >= 0 && contains(start, delimiter)) {
+            ensure(2);
+            System.arraycopy(buffer, start, buffer, start + 1, length - start);
+            buffer[start] = (byte)quote;
+            buffer[length + 1] = (byte)quote;
+            length += 2;
+        }
+    }
+
+    /**
+     * Appends UTF-8 bytes of the characters, unpaired surrogates are replaced the same way {@link Text} does
+     */
+    private void appendChars(String val, boolean doubleQuotes) {
+        final int chars = val.length();
+        // at most three bytes per char, or four per surrogate pair, plus doubled quotes
+        ensure(3 * chars);
+        for(int i = 0; i < chars; i++) {
+            final char c = val.charAt(i);
+            if(c < 0x80) {
+                if(c == quote && doubleQuotes) {
+                    ensure(3 * (chars - i) + 1);
+                    buffer[length++] = (byte)c;
+                }
+                buffer[length++] = (byte)c;
+            } else if(c < 0x800) {
+                buffer[length++] = (byte)(0xc0 | c >> 6);
+                buffer[length++] = (byte)(0x80 | c & 0x3f);
+            } else if(Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(val.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, val.charAt(++i));
+                buffer[length++] = (byte)(0xf0 | codePoint >> 18);
+                buffer[length++] = (byte)(0x80 | codePoint >> 12 & 0x3f);
+                buffer[length++] = (byte)(0x80 | codePoint >> 6 & 0x3f);
+                buffer[length++] = (byte)(0x80 | codePoint & 0x3f);
+            } else if(c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                buffer[length++] = '?';
+            } else {
+                buffer[length++] = (byte)(0xe0 | c >> 12);
+                buffer[length++] = (byte)(0x80 | c >> 6 & 0x3f);
+                buffer[length++] = (byte)(0x80 | c & 0x3f);
+            }
+        }
+    }
+
+    private boolean contains(int start, byte[] bytes) {
+        for(int i = start; i <= length - bytes.length; i++) {
+            int j = 0;
+            while(j < bytes.length && buffer[i + j] == bytes[j]) {
+                j++;
+            }
+            if(j == bytes.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,350 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import cascading.tuple.Tuple;
+import org.apache.avro.Schema;
+import org.apache.hadoop.io.Text;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.CharacterCodingException;
+
+/**
+ * Parses delimited lines in a single pass over their UTF-8 bytes, converting fields straight to the types of the
+ * schema. Produces the same tuples as {@link cascading.scheme.TextDelimited} for well formed lines: values are split
+ * at delimiters outside of quotes, surrounding quotes are removed, doubled quotes are unescaped and empty values are
+ * null. Lines it can't handle the same way, such as lines with a wrong number of fields, unbalanced quotes or values
+ * that don't parse, are left to the caller.
+ */
+final class DelimitedParser {
+    private static final double[] DOUBLE_POWERS = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    private static final float[] FLOAT_POWERS = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+    /** Largest mantissas represented exactly by doubles and floats */
+    private static final long MAX_DOUBLE_MANTISSA = 1L << 53;
+    private static final long MAX_FLOAT_MANTISSA = 1L << 24;
+
+    private final byte[] delimiter;
+    private final int quote;
+    private final Schema.Type[] types;
+    private byte[] scratch = new byte[64];
+    /** Set by conversions that couldn't parse their value */
+    private boolean failed;
+
+    /**
+     * Creates parser for given field types, the quote is optional and must be a single ASCII character
+     */
+    DelimitedParser(String delimiter, String quote, Schema.Type[] types) {
+        if(delimiter.length() == 0) {
+            throw new IllegalArgumentException("Delimiter can't be empty");
+        }
+        if(quote != null && (quote.length() != 1 || quote.charAt(0) > 0x7f || delimiter.contains(quote))) {
+            throw new IllegalArgumentException("Can't parse quotes " + quote + " with delimiter " + delimiter);
+        }
+        try {
+            this.delimiter = delimiter.getBytes("UTF-8");
+        } catch(UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        this.quote = quote == null ? -1 : quote.charAt(0);
+        this.types = types.clone();
+    }
+
+    /**
+     * Returns values of the line, or null if the line has to be parsed by the generic parser
+     */
+    Tuple parse(Text line) {
+        final byte[] bytes = line.getBytes();
+        final int length = line.getLength();
+        if(quote >= 0 && !balanced(bytes, length)) {
+            return null;
+        }
+
+        final Tuple result = Tuple.size(types.length);
+        int start = 0;
+        for(int i = 0; i < types.length; i++) {
+            // the last field takes the rest of the line, as with a split limited to the number of fields
+            final int end = i == types.length - 1 ? length : next(bytes, start, length);
+            if(end < 0) {
+                return null;
+            }
+            final Object val = quote >= 0 ? unquote(i, bytes, start, end) : convert(i, bytes, start, end - start);
+            if(failed) {
+                failed = false;
+                return null;
+            }
+            result.set(i, val);
+            start = end + delimiter.length;
+        }
+        return result;
+    }
+
+    private boolean balanced(byte[] bytes, int length) {
+        boolean balanced = true;
+        for(int i = 0; i < length; i++) {
+            if(bytes[i] == quote) {
+                balanced = !balanced;
+            }
+        }
+        return balanced;
+    }
+
+    /**
+     * Finds the next delimiter outside of quotes, returns -1 if there is none
+     */
+    private int next(byte[] bytes, int start, int length) {
+        final byte first = delimiter[0];
+        boolean quoted = false;
+        for(int i = start; i <= length - delimiter.length; i++) {
+            final byte b = bytes[i];
+            if(b == quote) {
+                quoted = !quoted;
+            } else if(b == first && !quoted && matches(bytes, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(byte[] bytes, int offset) {
+        for(int i = 1; i < delimiter.length; i++) {
+            if(bytes[offset + i] != delimiter[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes surrounding quotes and unescapes doubled quotes before converting the value
+     */
+    private Object unquote(int field, byte[] bytes, int start, int end) {
+        boolean plain = true;
+        for(int i = start; i < end && plain; i++) {
+            plain = bytes[i] != quote;
+        }
+        if(plain) {
+            return convert(field, bytes, start, end - start);
+        }
+
+        if(end - start >= 2 && bytes[start] == quote && bytes[end - 1] == quote) {
+            start++;
+            end--;
+            if(hasLineTerminator(bytes, start, end)) {
+                // quotes are only removed when the value is a single line
+                failed = true;
+                return null;
+            }
+        }
+        if(scratch.length < end - start) {
+            scratch = new byte[Math.max(end - start, 2 * scratch.length)];
+        }
+        int length = 0;
+        for(int i = start; i < end; i++) {
+            scratch[length++] = bytes[i];
+            if(bytes[i] == quote && i + 1 < end && bytes[i + 1] == quote) {
+                i++;
+            }
+        }
+        return convert(field, scratch, 0, length);
+    }
+
+    /**
+     * Tells whether the bytes contain a character not matched by the dot of a regular expression
+     */
+    private static boolean hasLineTerminator(byte[] bytes, int start, int end) {
+        for(int i = start; i < end; i++) {
+            final int b = bytes[i] & 0xff;
+            if(b == '\n' || b == '\r') {
+                return true;
+            }
+            // U+0085, U+2028 and U+2029
+            if(b == 0xc2 && i + 1 < end && (bytes[i + 1] & 0xff) == 0x85) {
+                return true;
+            }
+            if(b == 0xe2 && i + 2 < end && (bytes[i + 1] & 0xff) == 0x80
+                    && ((bytes[i + 2] & 0xff) == 0xa8 || (bytes[i + 2] & 0xff) == 0xa9)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Object convert(int field, byte[] bytes, int offset, int length) {
+        if(length == 0) {
+            return null;
+        }
+        switch(types[field]) {
+            case INT:
+                return parseInt(bytes, offset, length);
+            case LONG:
+                return parseLong(bytes, offset, length);
+            case DOUBLE:
+                return parseDouble(bytes, offset, length);
+            case FLOAT:
+                return parseFloat(bytes, offset, length);
+            case BOOLEAN:
+                return parseBoolean(bytes, offset, length);
+        }
+        return decode(bytes, offset, length);
+    }
+
+    private String decode(byte[] bytes, int offset, int length) {
+        boolean ascii = true;
+        for(int i = offset; i < offset + length && ascii; i++) {
+            ascii = bytes[i] >= 0;
+        }
+        if(ascii) {
+            return asciiString(bytes, offset, length);
+        }
+        try {
+            return Text.decode(bytes, offset, length, true);
+        } catch(CharacterCodingException e) {
+            failed = true;
+            return null;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String asciiString(byte[] bytes, int offset, int length) {
+        return new String(bytes, 0, offset, length);
+    }
+
+    private Integer parseInt(byte[] bytes, int offset, int length) {
+        // up to 9 digits always fit
+        final long val = digits(bytes, offset, length, 9);
+        if(val != Long.MIN_VALUE) {
+            return (int)val;
+        }
+        try {
+            return Integer.valueOf(decode(bytes, offset, length));
+        } catch(NumberFormatException e) {
+            failed = true;
+            return null;
+        }
+    }
+
+    private Long parseLong(byte[] bytes, int offset, int length) {
+        // up to 18 digits always fit
+        final long val = digits(bytes, offset, length, 18);
+        if(val != Long.MIN_VALUE) {
+            return val;
+        }
+        try {
+            return Long.valueOf(decode(bytes, offset, length));
+        } catch(NumberFormatException e) {
+            failed = true;
+            return null;
+        }
+    }
+
+    /**
+     * Parses an optionally negative number of up to given count of digits, returns Long.MIN_VALUE for anything else
+     */
+    private static long digits(byte[] bytes, int offset, int length, int maxDigits) {
+        final boolean negative = bytes[offset] == '-';
+        final int start = negative ? offset + 1 : offset;
+        final int end = offset + length;
+        if(start == end || end - start > maxDigits) {
+            return Long.MIN_VALUE;
+        }
+        long result = 0;
+        for(int i = start; i < end; i++) {
+            final int digit = bytes[i] - '0';
+            if(digit < 0 || digit > 9) {
+                return Long.MIN_VALUE;
+            }
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    private Double parseDouble(byte[] bytes, int offset, int length) {
+        final long mantissa = mantissa(bytes, offset, length, MAX_DOUBLE_MANTISSA);
+        final int scale = scale(bytes, offset, length);
+        if(mantissa >= 0 && scale < DOUBLE_POWERS.length) {
+            // exact mantissa and power of ten, so the division rounds correctly
+            final double val = mantissa / DOUBLE_POWERS[scale];
+            return bytes[offset] == '-' ? -val : val;
+        }
+        try {
+            return Double.valueOf(decode(bytes, offset, length));
+        } catch(NumberFormatException e) {
+            failed = true;
+            return null;
+        }
+    }
+
+    private Float parseFloat(byte[] bytes, int offset, int length) {
+        final long mantissa = mantissa(bytes, offset, length, MAX_FLOAT_MANTISSA);
+        final int scale = scale(bytes, offset, length);
+        if(mantissa >= 0 && scale < FLOAT_POWERS.length) {
+            final float val = mantissa / FLOAT_POWERS[scale];
+            return bytes[offset] == '-' ? -val : val;
+        }
+        try {
+            return Float.valueOf(decode(bytes, offset, length));
+        } catch(NumberFormatException e) {
+            failed = true;
+            return null;
+        }
+    }
+
+    /**
+     * Returns digits of an optionally negative decimal number without exponent as an integer, or -1 when the value
+     * has another format or the digits exceed the limit
+     */
+    private static long mantissa(byte[] bytes, int offset, int length, long limit) {
+        final int start = bytes[offset] == '-' ? offset + 1 : offset;
+        final int end = offset + length;
+        long result = 0;
+        int digits = 0;
+        boolean point = false;
+        for(int i = start; i < end; i++) {
+            final int digit = bytes[i] - '0';
+            if(digit >= 0 && digit <= 9) {
+                result = result * 10 + digit;
+                if(result >= limit) {
+                    return -1;
+                }
+                digits++;
+            } else if(bytes[i] == '.' && !point) {
+                point = true;
+            } else {
+                return -1;
+            }
+        }
+        return digits > 0 ? result : -1;
+    }
+
+    /**
+     * Returns number of digits after the decimal point
+     */
+    private static int scale(byte[] bytes, int offset, int length) {
+        for(int i = offset; i < offset + length; i++) {
+            if(bytes[i] == '.') {
+                return offset + length - i - 1;
+            }
+        }
+        return 0;
+    }
+
+    private static Boolean parseBoolean(byte[] bytes, int offset, int length) {
+        return length == 4 && (bytes[offset] | 0x20) == 't' && (bytes[offset + 1] | 0x20) == 'r'
+                && (bytes[offset + 2] | 0x20) == 'u' && (bytes[offset + 3] | 0x20) == 'e';
+    }
+}
@@ -0,0 +1,184 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A string value kept as UTF-8 bytes, sourced by {@link AvroScheme#setLazyStrings(boolean)}. The bytes are only decoded
+ * when the value is used as characters, and the decoded string is kept until the value changes.
+ * <p>
+ * Values are equal when their bytes are, and hash the same way as the equal {@link String}, so grouping and
+ * partitioning work without decoding. Values sort by their UTF-8 bytes, which is the Unicode code point order used by
+ * Avro and differs from {@link String#compareTo} only for supplementary characters.
+ */
+public final class LazyString implements CharSequence, WritableComparable<LazyString> {
+    private static final byte[] EMPTY = new byte[0];
+
+    private byte[] bytes = EMPTY;
+    private int length;
+    private String string;
+
+    public LazyString() {
+    }
+
+    public LazyString(String string) {
+        bytes = Utf8.getBytesFor(string);
+        length = bytes.length;
+        // not kept, strings with unpaired surrogates don't survive encoding
+    }
+
+    /**
+     * Creates value holding a copy of the bytes
+     */
+    public LazyString(byte[] data, int offset, int length) {
+        set(data, offset, length);
+    }
+
+    /**
+     * Copies the bytes into this value
+     */
+    public void set(byte[] data, int offset, int length) {
+        if(bytes.length < length) {
+            bytes = new byte[length];
+        }
+        System.arraycopy(data, offset, bytes, 0, length);
+        this.length = length;
+        string = null;
+    }
+
+    /**
+     * Returns the backing array, only the first {@link #getByteLength()} bytes are valid
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int getByteLength() {
+        return length;
+    }
+
+    public int length() {
+        return toString().length();
+    }
+
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if(string == null) {
+            string = new Utf8(bytes).setByteLength(length).toString();
+        }
+        return string;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, length);
+        out.write(bytes, 0, length);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        final int newLength = WritableUtils.readVInt(in);
+        if(bytes.length < newLength) {
+            bytes = new byte[newLength];
+        }
+        in.readFully(bytes, 0, newLength);
+        length = newLength;
+        string = null;
+    }
+
+    public int compareTo(LazyString other) {
+        return WritableComparator.compareBytes(bytes, 0, length, other.bytes, 0, other.length);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) {
+            return true;
+        }
+        if(!(o instanceof LazyString)) {
+            return false;
+        }
+        final LazyString that = (LazyString)o;
+        return compareTo(that) == 0;
+    }
+
+    /**
+     * Returns the hash code of the equal {@link String}, computed from the UTF-8 bytes
+     */
+    @Override
+    public int hashCode() {
+        if(string != null) {
+            return string.hashCode();
+        }
+        int result = 0;
+        for(int i = 0; i < length; ) {
+            final int b = bytes[i] & 0xff;
+            final int codePoint;
+            if(b < 0x80) {
+                codePoint = b;
+                i++;
+            } else if(b >= 0xc2 && b < 0xe0 && i + 1 < length && continuation(i + 1)) {
+                codePoint = (b & 0x1f) << 6 | bytes[i + 1] & 0x3f;
+                i += 2;
+            } else if(b >= 0xe0 && b < 0xf0 && i + 2 < length && continuation(i + 1) && continuation(i + 2)) {
+                codePoint = (b & 0x0f) << 12 | (bytes[i + 1] & 0x3f) << 6 | bytes[i + 2] & 0x3f;
+                if(codePoint < 0x800 || codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE) {
+                    return toString().hashCode();
+                }
+                i += 3;
+            } else if(b >= 0xf0 && b < 0xf5 && i + 3 < length && continuation(i + 1) && continuation(i + 2)
+                    && continuation(i + 3)) {
+                codePoint = (b & 0x07) << 18 | (bytes[i + 1] & 0x3f) << 12 | (bytes[i + 2] & 0x3f) << 6
+                        | bytes[i + 3] & 0x3f;
+                if(codePoint < 0x10000 || codePoint > Character.MAX_CODE_POINT) {
+                    return toString().hashCode();
+                }
+                i += 4;
+            } else {
+                // malformed input hashes like its decoded replacement characters
+                return toString().hashCode();
+            }
+
+            if(codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                result = 31 * result + codePoint;
+            } else {
+                // same as Character.highSurrogate and lowSurrogate, which need Java 7
+                result = 31 * result + (char)((codePoint >>> 10)
+                        + (Character.MIN_HIGH_SURROGATE - (Character.MIN_SUPPLEMENTARY_CODE_POINT >>> 10)));
+                result = 31 * result + (char)((codePoint & 0x3ff) + Character.MIN_LOW_SURROGATE);
+            }
+        }
+        return result;
+    }
+
+    private boolean continuation(int index) {
+        return (bytes[index] & 0xc0) == 0x80;
+    }
+}
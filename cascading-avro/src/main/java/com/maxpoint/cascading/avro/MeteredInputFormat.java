@@ -0,0 +1,110 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+
+/**
+ * Input format that publishes {@link AvroMetrics} for records read by another input format: number of records, bytes
+ * of the split and time spent in the wrapped record reader.
+ */
+public class MeteredInputFormat<K, V> implements InputFormat<K, V> {
+    static final String INPUT_FORMAT = "cascading.avro.metrics.input.format";
+
+    /**
+     * Wraps the input format set in the job
+     */
+    static void install(JobConf conf) {
+        final Class<? extends InputFormat> inputFormat = conf.getInputFormat().getClass();
+        if(inputFormat != MeteredInputFormat.class) {
+            conf.setClass(INPUT_FORMAT, inputFormat, InputFormat.class);
+            conf.setInputFormat(MeteredInputFormat.class);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private InputFormat<K, V> inputFormat(JobConf job) {
+        final Class<? extends InputFormat> inputFormat = job.getClass(INPUT_FORMAT, null, InputFormat.class);
+        if(inputFormat == null) {
+            throw new IllegalStateException("Missing " + INPUT_FORMAT + " in job configuration");
+        }
+        return ReflectionUtils.newInstance(inputFormat, job);
+    }
+
+    public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
+        return inputFormat(job).getSplits(job, numSplits);
+    }
+
+    public RecordReader<K, V> getRecordReader(InputSplit split, JobConf job, Reporter reporter) throws IOException {
+        final RecordReader<K, V> reader = inputFormat(job).getRecordReader(split, job, reporter);
+        return new MeteredRecordReader<K, V>(reader, AvroMetrics.register(job, reporter == null ? Reporter.NULL : reporter));
+    }
+
+    private static final class MeteredRecordReader<K, V> implements RecordReader<K, V> {
+        private final RecordReader<K, V> reader;
+        private final AvroMetrics metrics;
+        private final AvroMetrics.Timer timer;
+        private final long start;
+
+        private MeteredRecordReader(RecordReader<K, V> reader, AvroMetrics metrics) throws IOException {
+            this.reader = reader;
+            this.metrics = metrics;
+            timer = metrics.timer(AvroCounters.DECODE_NANOS);
+            start = reader.getPos();
+        }
+
+        public boolean next(K key, V value) throws IOException {
+            final boolean timed = timer.start();
+            final boolean result = reader.next(key, value);
+            if(timed) {
+                timer.stop();
+            }
+            if(result) {
+                metrics.increment(AvroCounters.RECORDS_READ);
+            }
+            return result;
+        }
+
+        public K createKey() {
+            return reader.createKey();
+        }
+
+        public V createValue() {
+            return reader.createValue();
+        }
+
+        public long getPos() throws IOException {
+            return reader.getPos();
+        }
+
+        public float getProgress() throws IOException {
+            return reader.getProgress();
+        }
+
+        public void close() throws IOException {
+            metrics.add(AvroCounters.BYTES_READ, reader.getPos() - start);
+            metrics.close();
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputFormat;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.Progressable;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+
+/**
+ * Output format that publishes {@link AvroMetrics} for records written by another file output format: number of
+ * records and time spent in the wrapped record writer.
+ */
+public class MeteredOutputFormat<K, V> extends FileOutputFormat<K, V> {
+    static final String OUTPUT_FORMAT = "cascading.avro.metrics.output.format";
+
+    /**
+     * Wraps the output format set in the job
+     */
+    static void install(JobConf conf) {
+        final Class<? extends OutputFormat> outputFormat = conf.getOutputFormat().getClass();
+        if(outputFormat != MeteredOutputFormat.class) {
+            conf.setClass(OUTPUT_FORMAT, outputFormat, OutputFormat.class);
+            conf.setOutputFormat(MeteredOutputFormat.class);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private OutputFormat<K, V> outputFormat(JobConf job) {
+        final Class<? extends OutputFormat> outputFormat = job.getClass(OUTPUT_FORMAT, null, OutputFormat.class);
+        if(outputFormat == null) {
+            throw new IllegalStateException("Missing " + OUTPUT_FORMAT + " in job configuration");
+        }
+        return ReflectionUtils.newInstance(outputFormat, job);
+    }
+
+    @Override
+    public void checkOutputSpecs(FileSystem ignored, JobConf job) throws IOException {
+        outputFormat(job).checkOutputSpecs(ignored, job);
+    }
+
+    @Override
+    public RecordWriter<K, V> getRecordWriter(FileSystem ignored, JobConf job, String name,
+                                              Progressable progress) throws IOException {
+        final RecordWriter<K, V> writer = outputFormat(job).getRecordWriter(ignored, job, name, progress);
+        final Reporter reporter = progress instanceof Reporter ? (Reporter)progress : Reporter.NULL;
+        return new MeteredRecordWriter<K, V>(writer, AvroMetrics.register(job, reporter));
+    }
+
+    private static final class MeteredRecordWriter<K, V> implements RecordWriter<K, V> {
+        private final RecordWriter<K, V> writer;
+        private final AvroMetrics metrics;
+        private final AvroMetrics.Timer timer;
+
+        private MeteredRecordWriter(RecordWriter<K, V> writer, AvroMetrics metrics) {
+            this.writer = writer;
+            this.metrics = metrics;
+            timer = metrics.timer(AvroCounters.ENCODE_NANOS);
+        }
+
+        public void write(K key, V value) throws IOException {
+            final boolean timed = timer.start();
+            writer.write(key, value);
+            if(timed) {
+                timer.stop();
+            }
+            metrics.increment(AvroCounters.RECORDS_WRITTEN);
+        }
+
+        public void close(Reporter reporter) throws IOException {
+            writer.close(reporter);
+            metrics.close();
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.mapred.AvroWrapper;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Writes deflate compressed data files, compressing blocks on background threads while the task encodes the next
+ * ones. Blocks are written in order with the sync marker of the file, so the files are the same as written by
+ * {@link DataFileWriter}, apart from the compressed bytes.
+ * <p>
+ * The header is written by a data file writer, which is not used afterwards. Every writer has at most one block per
+ * thread plus one in compression, blocks are handed back to the task once written. Threads are shared by all writers
+ * of the JVM.
+ */
+final class ParallelBlockWriter implements RecordWriter<AvroWrapper<IndexedRecord>, NullWritable> {
+    private static final int SYNC_SIZE = 16;
+    private static ExecutorService executor;
+    private static int executorThreads;
+
+    private final GenericDatumWriter<IndexedRecord> datumWriter;
+    private final FSDataOutputStream out;
+    private final BinaryEncoder blockEncoder;
+    private final byte[] sync;
+    private final int level;
+    private final int syncInterval;
+    private final int maxPending;
+    private final ExecutorService pool;
+    private final AvroMetrics metrics;
+    private final AvroMetrics.Timer encodeTimer;
+    private final AvroMetrics.Timer compressTimer;
+    private final BlockIndex.Builder index;
+    private final JobConf job;
+    private final Path path;
+    private final Queue<Future<Block>> pending = new ArrayDeque<Future<Block>>();
+    private final Queue<Block> free = new ArrayDeque<Block>();
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+    private volatile boolean closed;
+    private Block block = new Block();
+    private BinaryEncoder encoder;
+
+    /**
+     * Writes the header of the file with given writer, which must not be used afterwards
+     */
+    ParallelBlockWriter(Schema schema, DataFileWriter<IndexedRecord> writer,
+                        GenericDatumWriter<IndexedRecord> datumWriter, FSDataOutputStream out, int level, int syncInterval, int threads, AvroMetrics metrics,
+                        String[] keys, JobConf job, Path path) throws IOException {
+        final SyncCapture capture = new SyncCapture(out);
+        writer.create(schema, capture);
+        writer.flush();
+        this.datumWriter = datumWriter;
+        this.out = out;
+        this.sync = capture.sync();
+        this.level = level;
+        this.syncInterval = syncInterval;
+        this.maxPending = threads + 1;
+        this.pool = executor(threads);
+        this.metrics = metrics;
+        this.job = job;
+        this.path = path;
+        blockEncoder = EncoderFactory.get().binaryEncoder(out, null);
+        index = keys != null ? new BlockIndex.Builder(schema, keys, out.getPos()) : null;
+        encodeTimer = metrics != null ? metrics.timer(AvroCounters.ENCODE_NANOS) : null;
+        compressTimer = metrics != null ? metrics.timer(AvroCounters.COMPRESS_NANOS) : null;
+    }
+
+    private static synchronized ExecutorService executor(int threads) {
+        if(executor == null || executorThreads < threads) {
+            // writers keep using the previous pool, its idle threads time out
+            final ThreadPoolExecutor result = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory());
+            result.allowCoreThreadTimeOut(true);
+            executor = result;
+            executorThreads = threads;
+        }
+        return executor;
+    }
+
+    public void write(AvroWrapper<IndexedRecord> key, NullWritable value) throws IOException {
+        final boolean encodeTimed = metrics != null && encodeTimer.start();
+        final int start = block.data.size();
+        encoder = EncoderFactory.get().binaryEncoder(block.data, encoder);
+        datumWriter.write(key.datum(), encoder);
+        encoder.flush();
+        final int encoded = block.data.size() - start;
+        block.count++;
+        if(encodeTimed) {
+            encodeTimer.stop();
+        }
+
+        if(index != null) {
+            index.add(key.datum());
+        }
+        if(block.data.size() >= syncInterval) {
+            final boolean compressTimed = metrics != null && compressTimer.start();
+            submit();
+            if(compressTimed) {
+                compressTimer.stop();
+            }
+        }
+
+        if(metrics != null) {
+            metrics.add(AvroCounters.BYTES_ENCODED, encoded);
+            metrics.increment(AvroCounters.RECORDS_WRITTEN);
+        }
+    }
+
+    /**
+     * Hands the current block to the pool, writing the oldest blocks first when too many are pending
+     */
+    private void submit() throws IOException {
+        if(index != null) {
+            index.endBlock();
+        }
+        final Block submitted = block;
+        pending.add(pool.submit(new Callable<Block>() {
+            public Block call() throws Exception {
+                compress(submitted);
+                return submitted;
+            }
+        }));
+        while(pending.size() > maxPending) {
+            writeBlock();
+        }
+        block = free.isEmpty() ? new Block() : free.remove();
+    }
+
+    private void compress(Block block) {
+        Deflater deflater = deflaters.poll();
+        if(deflater == null) {
+            // raw deflate, the same as the deflate codec of Avro
+            deflater = new Deflater(level, true);
+        }
+        try {
+            deflater.setInput(block.data.buffer(), 0, block.data.size());
+            deflater.finish();
+            final byte[] chunk = block.chunk;
+            while(!deflater.finished()) {
+                final int length = deflater.deflate(chunk);
+                block.compressed.write(chunk, 0, length);
+            }
+        } finally {
+            if(closed) {
+                deflater.end();
+            } else {
+                deflater.reset();
+                deflaters.add(deflater);
+                // blocks still compressing once a failed writer closes must not keep their deflater
+                if(closed && deflaters.remove(deflater)) {
+                    deflater.end();
+                }
+            }
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        final Block written;
+        try {
+            written = pending.remove().get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing " + path);
+        } catch(ExecutionException e) {
+            throw new IOException("Can't compress block of " + path, e.getCause());
+        }
+        if(index != null) {
+            index.placeBlock(out.getPos());
+        }
+        blockEncoder.writeLong(written.count);
+        blockEncoder.writeLong(written.compressed.size());
+        blockEncoder.writeFixed(written.compressed.buffer(), 0, written.compressed.size());
+        blockEncoder.writeFixed(sync);
+        blockEncoder.flush();
+        written.reset();
+        free.add(written);
+    }
+
+    /**
+     * Writes the remaining blocks, the stream is closed and native deflater memory released even if writing fails
+     */
+    public void close(Reporter reporter) throws IOException {
+        final long length;
+        try {
+            try {
+                if(block.count > 0) {
+                    submit();
+                }
+                while(!pending.isEmpty()) {
+                    writeBlock();
+                }
+            } finally {
+                for(Future<Block> future : pending) {
+                    future.cancel(false);
+                }
+            }
+            out.flush();
+            length = out.getPos();
+        } finally {
+            closed = true;
+            try {
+                out.close();
+            } finally {
+                Deflater deflater;
+                while((deflater = deflaters.poll()) != null) {
+                    deflater.end();
+                }
+            }
+        }
+        if(index != null) {
+            index.write(job, path, length);
+        }
+        if(metrics != null) {
+            metrics.add(AvroCounters.BYTES_WRITTEN, length);
+            metrics.flush();
+        }
+    }
+
+    /**
+     * Encoded records of a block and their compressed form, reused once the block is written
+     */
+    private static final class Block {
+        private final Buffer data = new Buffer();
+        private final Buffer compressed = new Buffer();
+        private final byte[] chunk = new byte[65536];
+        private long count;
+
+        private void reset() {
+            data.reset();
+            compressed.reset();
+            count = 0;
+        }
+    }
+
+    private static final class Buffer extends ByteArrayOutputStream {
+        private byte[] buffer() {
+            return buf;
+        }
+    }
+
+    /**
+     * Keeps the last bytes written through the stream, which end with the sync marker once the header is written
+     */
+    private static final class SyncCapture extends FilterOutputStream {
+        private final byte[] last = new byte[SYNC_SIZE];
+        private long written;
+
+        private SyncCapture(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            last[(int)(written++ % SYNC_SIZE)] = (byte)b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            final int skipped = Math.max(0, len - SYNC_SIZE);
+            written += skipped;
+            for(int i = skipped; i < len; i++) {
+                last[(int)(written++ % SYNC_SIZE)] = b[off + i];
+            }
+        }
+
+        private byte[] sync() {
+            final byte[] result = new byte[SYNC_SIZE];
+            for(int i = 0; i < SYNC_SIZE; i++) {
+                result[i] = last[(int)((written + i) % SYNC_SIZE)];
+            }
+            return result;
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            final Thread result = new Thread(runnable, "avro-compression-" + count.incrementAndGet());
+            result.setDaemon(true);
+            return result;
+        }
+    }
+}
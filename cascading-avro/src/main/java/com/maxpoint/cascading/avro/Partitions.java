@@ -0,0 +1,194 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.mapred.AvroOutputFormat;
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.codehaus.jackson.node.NullNode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lists Avro files under directories partitioned by {@code key=value} path segments, the layout written by
+ * {@link AvroPartitionScheme}. Directories are walked recursively and skipped as soon as the values of the partition
+ * segments seen so far can't satisfy the partition predicate, so files of pruned partitions are never listed.
+ */
+final class Partitions {
+    static final String FIELDS = "cascading.avro.source.partition.fields";
+    static final String VIRTUAL_FIELDS = "cascading.avro.source.partition.virtual";
+    static final String PREDICATE = "cascading.avro.source.partition.predicate";
+
+    private static final PathFilter HIDDEN_FILTER = new PathFilter() {
+        public boolean accept(Path path) {
+            final String name = path.getName();
+            return !name.startsWith("_") && !name.startsWith(".");
+        }
+    };
+
+    private final String[] fields;
+    private final AvroPredicate predicate;
+    private final PathFilter inputFilter;
+    private final GenericData.Record values;
+    private final boolean[] known;
+
+    private Partitions(JobConf job, String[] fields) throws IOException {
+        this.fields = fields;
+        values = new GenericData.Record(schema(Arrays.asList(fields)));
+        known = new boolean[fields.length];
+        predicate = ConfSerialization.get(job, PREDICATE);
+        if(predicate != null) {
+            predicate.bind(values.getSchema());
+        }
+        inputFilter = FileInputFormat.getInputPathFilter(job);
+    }
+
+    /**
+     * Creates schema of partition values, all values are nullable strings
+     */
+    static Schema schema(List<String> fields) {
+        final List<Schema.Field> result = new ArrayList<Schema.Field>(fields.size());
+        for(String field : fields) {
+            result.add(new Schema.Field(field, nullableString(), null, NullNode.getInstance()));
+        }
+        final Schema schema = Schema.createRecord("Partition", null, null, false);
+        schema.setFields(result);
+        return schema;
+    }
+
+    static Schema nullableString() {
+        return Schema.createUnion(Arrays.asList(Schema.create(Schema.Type.NULL), Schema.create(Schema.Type.STRING)));
+    }
+
+    /**
+     * Parses {@code key=value} segments of the path, values of nested segments take precedence
+     */
+    static Map<String, Utf8> values(Path path) {
+        final Map<String, Utf8> result = new HashMap<String, Utf8>();
+        for(Path current = path; current != null; current = current.getParent()) {
+            final String name = current.getName();
+            final int separator = name.indexOf('=');
+            if(separator > 0) {
+                final String key = name.substring(0, separator);
+                if(!result.containsKey(key)) {
+                    result.put(key, value(name.substring(separator + 1)));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Utf8 value(String escaped) {
+        return AvroPartitionScheme.NULL_VALUE.equals(escaped) ? null : new Utf8(AvroPartitionScheme.unescape(escaped));
+    }
+
+    /**
+     * Lists Avro files of the job's input paths when partition fields are set, otherwise returns null
+     */
+    static FileStatus[] listStatus(JobConf job) throws IOException {
+        final String[] fields = job.getStrings(FIELDS);
+        if(fields == null) {
+            return null;
+        }
+        return new Partitions(job, fields).list(job);
+    }
+
+    private FileStatus[] list(JobConf job) throws IOException {
+        final List<FileStatus> result = new ArrayList<FileStatus>();
+        for(Path input : FileInputFormat.getInputPaths(job)) {
+            final FileSystem fs = input.getFileSystem(job);
+            final FileStatus[] matches = fs.globStatus(input, HIDDEN_FILTER);
+            if(matches == null) {
+                throw new IOException("Input path does not exist: " + input);
+            }
+            for(FileStatus status : matches) {
+                // input paths may point into the partition tree
+                final Map<String, Utf8> inputValues = values(status.getPath());
+                for(int i = 0; i < fields.length; i++) {
+                    known[i] = inputValues.containsKey(fields[i]);
+                    values.put(i, inputValues.get(fields[i]));
+                }
+                if(matches()) {
+                    walk(fs, status, result);
+                }
+            }
+        }
+        return result.toArray(new FileStatus[result.size()]);
+    }
+
+    private void walk(FileSystem fs, FileStatus status, List<FileStatus> result) throws IOException {
+        if(!status.isDir()) {
+            final Path path = status.getPath();
+            if(path.getName().endsWith(AvroOutputFormat.EXT) && (inputFilter == null || inputFilter.accept(path))) {
+                result.add(status);
+            }
+            return;
+        }
+
+        for(FileStatus child : fs.listStatus(status.getPath(), HIDDEN_FILTER)) {
+            final int pos = child.isDir() ? field(child.getPath().getName()) : -1;
+            if(pos < 0) {
+                walk(fs, child, result);
+                continue;
+            }
+
+            final String name = child.getPath().getName();
+            final Object previous = values.get(pos);
+            final boolean wasKnown = known[pos];
+            values.put(pos, value(name.substring(name.indexOf('=') + 1)));
+            known[pos] = true;
+            if(matches()) {
+                walk(fs, child, result);
+            }
+            values.put(pos, previous);
+            known[pos] = wasKnown;
+        }
+    }
+
+    /**
+     * Finds position of the partition field named by a {@code key=value} directory
+     */
+    private int field(String name) {
+        final int separator = name.indexOf('=');
+        if(separator > 0) {
+            for(int i = 0; i < fields.length; i++) {
+                if(name.regionMatches(0, fields[i], 0, separator) && fields[i].length() == separator) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Tells whether files under the current partition may match, partitions not seen yet could have any value
+     */
+    private boolean matches() {
+        return predicate == null || predicate.matches(values, known) != Boolean.FALSE;
+    }
+}
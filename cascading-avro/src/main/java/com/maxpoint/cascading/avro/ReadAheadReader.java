@@ -0,0 +1,539 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.FileReader;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.mapred.FsInput;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads blocks of a data file on a background thread, decompressing up to a number of blocks ahead of the block being
+ * decoded by the task. Buffered blocks are limited both in number and in bytes, and their buffers are reused once
+ * decoded. A single thread and stream read the blocks of a split, seeking or syncing discards the buffered blocks and
+ * moves the reads of that thread to the new position.
+ * <p>
+ * Only files using the null or deflate codec are read ahead, other files are read by a plain {@link DataFileReader}.
+ * The reader follows the same sync semantics as {@link DataFileReader}, so splits and block skipping work unchanged.
+ */
+final class ReadAheadReader implements FileReader<IndexedRecord> {
+    private static final int SYNC_SIZE = 16;
+    private static final long POLL_MILLIS = 10;
+
+    private final DataFileReader<IndexedRecord> header;
+    private final DatumReader<IndexedRecord> datumReader;
+    private final FileSystem fs;
+    private final Path path;
+    private final long length;
+    private final long limit;
+    private final byte[] sync = new byte[SYNC_SIZE];
+    private final boolean deflate;
+    private final int depth;
+    private final long memory;
+    private final Queue<Block> free = new ConcurrentLinkedQueue<Block>();
+    private Prefetch prefetch;
+    private Block block;
+    private BinaryDecoder decoder;
+    private long blockRemaining;
+    private long blockStart;
+
+    /**
+     * Opens a reader of given file, reading blocks ahead while they start before the end of the split
+     */
+    static FileReader<IndexedRecord> open(JobConf job, Path path, DatumReader<IndexedRecord> datumReader, long end,
+                                          int depth, long memory) throws IOException {
+        final DataFileReader<IndexedRecord> header =
+                (DataFileReader<IndexedRecord>)DataFileReader.openReader(new FsInput(path, job), datumReader);
+        final String codec = header.getMetaString(DataFileConstants.CODEC);
+        if(codec != null && !DataFileConstants.NULL_CODEC.equals(codec) && !DataFileConstants.DEFLATE_CODEC.equals(codec)) {
+            return header;
+        }
+        return new ReadAheadReader(header, datumReader, job, path, end, depth, memory);
+    }
+
+    private ReadAheadReader(DataFileReader<IndexedRecord> header, DatumReader<IndexedRecord> datumReader, JobConf job,
+                            Path path, long limit, int depth, long memory) throws IOException {
+        this.header = header;
+        this.datumReader = datumReader;
+        this.path = path;
+        this.limit = limit;
+        this.depth = depth;
+        this.memory = memory;
+        fs = path.getFileSystem(job);
+        length = fs.getFileStatus(path).getLen();
+        deflate = DataFileConstants.DEFLATE_CODEC.equals(header.getMetaString(DataFileConstants.CODEC));
+
+        // the header ends with the sync marker
+        blockStart = header.previousSync();
+        final FSDataInputStream in = fs.open(path);
+        try {
+            in.readFully(blockStart - SYNC_SIZE, sync);
+        } finally {
+            in.close();
+        }
+    }
+
+    public Schema getSchema() {
+        return header.getSchema();
+    }
+
+    public Iterator<IndexedRecord> iterator() {
+        return this;
+    }
+
+    public boolean hasNext() {
+        try {
+            while(blockRemaining == 0) {
+                if(prefetch == null) {
+                    start(blockStart);
+                }
+                if(block != null) {
+                    prefetch.recycle(block);
+                    block = null;
+                }
+                final Block next = prefetch.take();
+                if(next == null) {
+                    return false;
+                }
+                block = next;
+                decoder = DecoderFactory.get().binaryDecoder(next.data, 0, next.dataLength, decoder);
+                blockRemaining = next.count;
+                if(blockRemaining == 0) {
+                    blockStart = next.end;
+                }
+            }
+            return true;
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public IndexedRecord next() {
+        try {
+            return next(null);
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public IndexedRecord next(IndexedRecord reuse) throws IOException {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final IndexedRecord result = datumReader.read(reuse, decoder);
+        if(--blockRemaining == 0) {
+            blockStart = block.end;
+        }
+        return result;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Moves to the first block starting after given position
+     */
+    public void sync(long position) throws IOException {
+        header.sync(position);
+        seek(header.previousSync());
+    }
+
+    /**
+     * Moves to the block starting at given position
+     */
+    public void seek(long position) throws IOException {
+        if(block != null) {
+            prefetch.recycle(block);
+            block = null;
+        }
+        blockRemaining = 0;
+        blockStart = position;
+        if(prefetch != null) {
+            prefetch.seek(position);
+        }
+    }
+
+    /**
+     * Returns start of the block following the last block read completely
+     */
+    public long previousSync() {
+        return blockStart;
+    }
+
+    public boolean pastSync(long position) throws IOException {
+        return blockStart >= position + SYNC_SIZE || blockStart >= length;
+    }
+
+    public long tell() throws IOException {
+        return blockStart;
+    }
+
+    public void close() throws IOException {
+        if(block != null) {
+            free.add(block);
+            block = null;
+        }
+        blockRemaining = 0;
+        try {
+            if(prefetch != null) {
+                prefetch.close();
+                prefetch = null;
+            }
+        } finally {
+            header.close();
+        }
+    }
+
+    private void start(long position) {
+        prefetch = new Prefetch(position);
+        final Thread thread = new Thread(prefetch, "avro-read-ahead " + path.getName());
+        thread.setDaemon(true);
+        prefetch.thread = thread;
+        thread.start();
+    }
+
+    /**
+     * Raw and decompressed bytes of a block, and the position where the next block starts. The last block of a seek
+     * holds no data and marks the end of the file or the split.
+     */
+    private static final class Block {
+        private byte[] raw = new byte[0];
+        private byte[] data = new byte[0];
+        private int dataLength;
+        private long count;
+        private long end;
+        private int generation;
+        private boolean last;
+
+        private long size() {
+            return raw.length + data.length;
+        }
+    }
+
+    /**
+     * Reads blocks from the last requested position until the end of the file or the split, then waits for the next
+     * seek until closed. Every seek starts a new generation, blocks of earlier generations are recycled unread.
+     */
+    private final class Prefetch implements Runnable {
+        private final BlockingQueue<Block> ready = new ArrayBlockingQueue<Block>(depth);
+        private volatile int generation;
+        private volatile boolean closed;
+        private volatile boolean finished;
+        private volatile IOException error;
+        private long position;
+        private long buffered;
+        private boolean ended;
+        private Thread thread;
+
+        private Prefetch(long start) {
+            position = start;
+        }
+
+        public void run() {
+            final Inflater inflater = deflate ? new Inflater(true) : null;
+            PositionedInput in = null;
+            try {
+                in = new PositionedInput(fs.open(path));
+                BinaryDecoder blockDecoder = null;
+                final byte[] marker = new byte[SYNC_SIZE];
+                int current = -1;
+                long offset = 0;
+                boolean done = false;
+                while(true) {
+                    final int requested;
+                    synchronized(this) {
+                        while(!closed && done && current == generation) {
+                            wait();
+                        }
+                        if(closed) {
+                            break;
+                        }
+                        requested = generation;
+                        if(requested != current) {
+                            offset = position;
+                        }
+                    }
+                    if(requested != current) {
+                        current = requested;
+                        done = false;
+                        in.position = offset;
+                        blockDecoder = DecoderFactory.get().binaryDecoder(in, blockDecoder);
+                    }
+                    // blocks starting past the end of the split belong to the next split
+                    if(offset >= length || offset >= limit + SYNC_SIZE) {
+                        final Block last = block(current);
+                        last.last = true;
+                        put(last);
+                        done = true;
+                        continue;
+                    }
+                    final long count = blockDecoder.readLong();
+                    final long size = blockDecoder.readLong();
+                    if(count < 0 || size < 0 || size > Integer.MAX_VALUE) {
+                        throw new IOException("Invalid block of " + path + " at " + offset);
+                    }
+                    final Block block = block(current);
+                    if(block.raw.length < size) {
+                        block.raw = new byte[(int)size];
+                    }
+                    blockDecoder.readFixed(block.raw, 0, (int)size);
+                    blockDecoder.readFixed(marker);
+                    if(!Arrays.equals(sync, marker)) {
+                        throw new IOException("Invalid sync in " + path + " after block at " + offset);
+                    }
+                    offset += varLength(count) + varLength(size) + size + SYNC_SIZE;
+                    block.count = count;
+                    block.end = offset;
+                    decompress(block, (int)size, inflater);
+                    if(!acquire(block.size(), current)) {
+                        free.add(block);
+                        continue;
+                    }
+                    put(block);
+                }
+            } catch(IOException e) {
+                error = e;
+            } catch(RuntimeException e) {
+                error = new IOException("Can't read ahead " + path, e);
+            } catch(InterruptedException e) {
+                error = new IOException("Interrupted while reading ahead " + path);
+            } finally {
+                if(inflater != null) {
+                    inflater.end();
+                }
+                if(in != null) {
+                    try {
+                        in.close();
+                    } catch(IOException e) {
+                        if(error == null) {
+                            error = e;
+                        }
+                    }
+                }
+                finished = true;
+            }
+        }
+
+        private Block block(int generation) {
+            Block result = free.poll();
+            if(result == null) {
+                result = new Block();
+            }
+            result.generation = generation;
+            result.last = false;
+            return result;
+        }
+
+        private void decompress(Block block, int size, Inflater inflater) throws IOException {
+            if(inflater == null) {
+                final byte[] data = block.data;
+                block.data = block.raw;
+                block.raw = data;
+                block.dataLength = size;
+                return;
+            }
+            inflater.reset();
+            inflater.setInput(block.raw, 0, size);
+            if(block.data.length < size) {
+                block.data = new byte[Math.max(size * 2, 64)];
+            }
+            int length = 0;
+            try {
+                while(!inflater.finished()) {
+                    if(length == block.data.length) {
+                        block.data = Arrays.copyOf(block.data, block.data.length * 2);
+                    }
+                    final int inflated = inflater.inflate(block.data, length, block.data.length - length);
+                    if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("Truncated block in " + path);
+                    }
+                    length += inflated;
+                }
+            } catch(DataFormatException e) {
+                throw new IOException("Can't inflate block of " + path, e);
+            }
+            block.dataLength = length;
+        }
+
+        /**
+         * Waits until the block fits into the memory limit, a single block is always let through. Returns false when
+         * the reader seeks or closes in the meantime.
+         */
+        private synchronized boolean acquire(long size, int current) throws InterruptedException {
+            while(!closed && current == generation && buffered > 0 && buffered + size > memory) {
+                wait();
+            }
+            if(closed || current != generation) {
+                return false;
+            }
+            buffered += size;
+            return true;
+        }
+
+        private synchronized void release(long size) {
+            buffered -= size;
+            notifyAll();
+        }
+
+        private void put(Block block) throws InterruptedException {
+            while(!closed && block.generation == generation) {
+                if(ready.offer(block, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+            recycle(block);
+        }
+
+        /**
+         * Returns the next block since the last seek, or null at the end of the file or the split
+         */
+        private Block take() throws IOException {
+            if(ended) {
+                return null;
+            }
+            try {
+                while(true) {
+                    final Block result = ready.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if(result != null) {
+                        if(result.generation != generation) {
+                            recycle(result);
+                        } else if(result.last) {
+                            recycle(result);
+                            ended = true;
+                            return null;
+                        } else {
+                            return result;
+                        }
+                    } else if(finished && ready.isEmpty()) {
+                        throw error != null ? error : new IOException("Read ahead of " + path + " stopped");
+                    }
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading " + path);
+            }
+        }
+
+        /**
+         * Moves reading ahead to the block starting at given position, recycling the blocks read so far
+         */
+        private synchronized void seek(long start) {
+            generation++;
+            position = start;
+            ended = false;
+            // the thread only picks up the new position once the lock is released, so all drained blocks are stale
+            Block stale;
+            while((stale = ready.poll()) != null) {
+                recycle(stale);
+            }
+            notifyAll();
+        }
+
+        private void recycle(Block block) {
+            // last blocks don't count against the memory limit
+            if(!block.last) {
+                release(block.size());
+            }
+            free.add(block);
+        }
+
+        private void close() throws IOException {
+            synchronized(this) {
+                closed = true;
+                notifyAll();
+            }
+            try {
+                while(thread.isAlive()) {
+                    ready.drainTo(free);
+                    thread.join(POLL_MILLIS);
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while stopping read ahead of " + path);
+            }
+            ready.drainTo(free);
+        }
+    }
+
+    /**
+     * Reads a stream with positioned reads, the buffer of a data input stream can hand out stale bytes after seeking
+     * back from its end
+     */
+    private static final class PositionedInput extends InputStream {
+        private final FSDataInputStream in;
+        private long position;
+
+        private PositionedInput(FSDataInputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int result = in.read(position, b, off, len);
+            if(result > 0) {
+                position += result;
+            }
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns number of bytes of a zig-zag encoded long
+     */
+    private static int varLength(long value) {
+        long n = (value << 1) ^ (value >> 63);
+        int result = 1;
+        while((n & ~0x7FL) != 0) {
+            n >>>= 7;
+            result++;
+        }
+        return result;
+    }
+}
@@ -27,10 +27,18 @@ import java.io.IOException;
 
 /**
  * Adapts sink fields to match wrapped scheme.
+ * <p>
+ * Positions of the sink fields in the incoming tuples are resolved once per incoming fields. When the incoming tuple
+ * holds exactly the sink fields in order, the wrapped scheme gets it as is, otherwise the values are copied into a
+ * reused tuple.
  */
 public class RenamerScheme extends Scheme {
     private final Scheme scheme;
     private final Fields toSinkFields;
+    private transient TupleEntry sinkEntry;
+    private transient Tuple sinkTuple;
+    private transient Fields sinkIncomingFields;
+    private transient int[] sinkPositions;
 
     public RenamerScheme(Scheme scheme, Fields from, Fields to) {
         super(scheme.getSourceFields(), from);
@@ -58,7 +66,38 @@ public class RenamerScheme extends Scheme {
 
     @Override
     public void sink(TupleEntry tupleEntry, OutputCollector collector) throws IOException {
-        final Tuple tuple = tupleEntry.selectTuple(this.getSinkFields());
-        scheme.sink(new TupleEntry(toSinkFields, tuple), collector);
+        if(sinkEntry == null) {
+            sinkEntry = new TupleEntry(toSinkFields);
+        }
+        final int[] positions = sinkPositions(tupleEntry.getFields());
+        final Tuple tuple = tupleEntry.getTuple();
+        if(positions == null) {
+            sinkEntry.setTuple(tuple);
+        } else {
+            for(int i = 0; i < positions.length; i++) {
+                sinkTuple.set(i, tuple.getObject(positions[i]));
+            }
+            sinkEntry.setTuple(sinkTuple);
+        }
+        scheme.sink(sinkEntry, collector);
+    }
+
+    /**
+     * Resolves positions of sink fields in the incoming tuples, returns null when the tuples can be passed as they are
+     */
+    private int[] sinkPositions(Fields incoming) {
+        if(incoming != sinkIncomingFields) {
+            final Fields sinkFields = getSinkFields();
+            final int[] positions = new int[sinkFields.size()];
+            boolean inOrder = incoming.size() == positions.length;
+            for(int i = 0; i < positions.length; i++) {
+                positions[i] = incoming.getPos(sinkFields.get(i));
+                inOrder &= positions[i] == i;
+            }
+            sinkPositions = inOrder ? null : positions;
+            sinkTuple = Tuple.size(positions.length);
+            sinkIncomingFields = incoming;
+        }
+        return sinkPositions;
     }
 }
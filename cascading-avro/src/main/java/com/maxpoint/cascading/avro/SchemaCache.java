@@ -0,0 +1,115 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import org.apache.avro.Schema;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps a single instance of every distinct schema seen by a task, keyed by a CRC-64 of the schema JSON.
+ * Avro caches resolvers between writer and reader schemas by schema identity, so reading many files with interned
+ * schemas resolves each pair of schemas only once.
+ */
+final class SchemaCache {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final long EMPTY = 0xc15d213aa4d7a795L;
+    private static final long[] TABLE = new long[256];
+
+    private static final ConcurrentMap<Long, Schema> SCHEMAS = new ConcurrentHashMap<Long, Schema>();
+    private static final ConcurrentMap<String, Schema> PARSED = new ConcurrentHashMap<String, Schema>();
+    private static final ConcurrentMap<Long, String> JSON = new ConcurrentHashMap<Long, String>();
+
+    static {
+        for(int i = 0; i < TABLE.length; i++) {
+            long fp = i;
+            for(int j = 0; j < 8; j++) {
+                fp = (fp >>> 1) ^ (EMPTY & -(fp & 1L));
+            }
+            TABLE[i] = fp;
+        }
+    }
+
+    private SchemaCache() {}
+
+    /**
+     * Computes the CRC-64 of the schema JSON. Unlike Avro fingerprints the JSON isn't reduced to its parsing canonical
+     * form, so docs, defaults and other attributes compared by {@link Schema#equals(Object)} change the fingerprint.
+     */
+    static long fingerprint(Schema schema) {
+        return fingerprint(schema.toString().getBytes(UTF8));
+    }
+
+    static long fingerprint(byte[] data) {
+        long result = EMPTY;
+        for(byte b : data) {
+            result = (result >>> 8) ^ TABLE[(int)(result ^ b) & 0xff];
+        }
+        return result;
+    }
+
+    /**
+     * Returns the cached instance equal to the schema, caching the schema if there is none
+     */
+    static Schema intern(Schema schema) {
+        final Long fingerprint = fingerprint(schema);
+        final Schema cached = SCHEMAS.putIfAbsent(fingerprint, schema);
+        if(cached == null) {
+            return schema;
+        }
+        // schemas with colliding fingerprints are just not cached
+        return cached.equals(schema) ? cached : schema;
+    }
+
+    /**
+     * Returns JSON form of the schema, the same string instance for all equal schemas
+     */
+    static String json(Schema schema) {
+        final String json = schema.toString();
+        final String cached = JSON.putIfAbsent(fingerprint(json.getBytes(UTF8)), json);
+        return cached != null && cached.equals(json) ? cached : json;
+    }
+
+    /**
+     * Returns the interned schema with given fingerprint when its JSON form matches, otherwise parses the JSON
+     */
+    static Schema parse(long fingerprint, String json) {
+        final String cached = JSON.get(fingerprint);
+        if(cached != null && cached.equals(json)) {
+            final Schema result = SCHEMAS.get(fingerprint);
+            if(result != null) {
+                return result;
+            }
+        }
+        final Schema result = parse(json);
+        JSON.putIfAbsent(fingerprint, json);
+        return result;
+    }
+
+    /**
+     * Parses and interns a schema, parsing each distinct JSON string only once
+     */
+    static Schema parse(String json) {
+        Schema result = PARSED.get(json);
+        if(result == null) {
+            result = intern(new Schema.Parser().parse(json));
+            PARSED.putIfAbsent(json, result);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,262 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.io.BinaryData;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.mapred.AvroWrapper;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Buffers records and writes them to another writer sorted by key fields, so similar records end up in the same
+ * blocks and compress better. Each record is buffered encoded, preceded by a record of its key fields, and keys are
+ * compared in their encoded form using the Avro sort order. Records with equal keys keep their order.
+ * <p>
+ * The buffer is written once it holds the maximum number of records or its encoded records reach the memory limit, so
+ * it never grows much beyond the limit, which can't exceed {@value AvroSchemeOutputFormat#MAX_SORT_BUFFER_MEMORY} bytes.
+ * The number of sorted runs and the peak size of the buffer are published as {@link AvroCounters#SORTED_RUNS} and
+ * {@link AvroCounters#SORT_BUFFER_BYTES} when the writer is closed.
+ */
+final class SortingWriter implements RecordWriter<AvroWrapper<IndexedRecord>, NullWritable> {
+    private static final int INITIAL_RECORDS = 1024;
+    private static final int INITIAL_BYTES = 65536;
+
+    private final RecordWriter<AvroWrapper<IndexedRecord>, NullWritable> writer;
+    private final Schema keySchema;
+    private final int[] keyPositions;
+    private final int maxRecords;
+    private final int maxMemory;
+    private final GenericDatumWriter<IndexedRecord> keyWriter;
+    private final GenericDatumWriter<IndexedRecord> datumWriter;
+    private final GenericDatumReader<IndexedRecord> datumReader;
+    private final GenericData.Record key;
+    private final AvroWrapper<IndexedRecord> wrapper;
+    private final Buffer buffer;
+    private BinaryEncoder encoder;
+    private BinaryDecoder decoder;
+    // record i is encoded from keyOffsets[i], its datum from datumOffsets[i] to the key of the next record
+    private int[] keyOffsets;
+    private int[] datumOffsets;
+    private int[] order;
+    private int[] merge;
+    private int count;
+    private long runs;
+    private long peakMemory;
+
+    SortingWriter(RecordWriter<AvroWrapper<IndexedRecord>, NullWritable> writer, Schema schema, String[] keys,
+                  int maxRecords, long maxMemory) {
+        if(maxRecords <= 0) {
+            throw new IllegalArgumentException("Sort buffer size must be positive, found " + maxRecords);
+        }
+        if(maxMemory <= 0 || maxMemory > AvroSchemeOutputFormat.MAX_SORT_BUFFER_MEMORY) {
+            throw new IllegalArgumentException("Sort buffer memory must be between 1 and "
+                    + AvroSchemeOutputFormat.MAX_SORT_BUFFER_MEMORY + ", found " + maxMemory);
+        }
+        this.writer = writer;
+        this.maxRecords = maxRecords;
+        this.maxMemory = (int)maxMemory;
+        final int capacity = Math.min(INITIAL_RECORDS, maxRecords);
+        keyOffsets = new int[capacity];
+        datumOffsets = new int[capacity];
+        order = new int[capacity];
+        merge = new int[capacity];
+
+        final List<Schema.Field> fields = new ArrayList<Schema.Field>(keys.length);
+        keyPositions = new int[keys.length];
+        for(int i = 0; i < keys.length; i++) {
+            final Schema.Field field = schema.getField(keys[i]);
+            if(field == null) {
+                throw new IllegalArgumentException("Can't find sort field " + keys[i] + " in " + schema.getFullName());
+            }
+            keyPositions[i] = field.pos();
+            fields.add(new Schema.Field(field.name(), field.schema(), null, null));
+        }
+        keySchema = Schema.createRecord("SortKey", null, null, false);
+        keySchema.setFields(fields);
+
+        keyWriter = new GenericDatumWriter<IndexedRecord>(keySchema);
+        datumWriter = new GenericDatumWriter<IndexedRecord>(schema);
+        datumReader = new GenericDatumReader<IndexedRecord>(schema);
+        key = new GenericData.Record(keySchema);
+        wrapper = new AvroWrapper<IndexedRecord>(new GenericData.Record(schema));
+        buffer = new Buffer(Math.min(INITIAL_BYTES, this.maxMemory), this.maxMemory);
+    }
+
+    public void write(AvroWrapper<IndexedRecord> record, NullWritable value) throws IOException {
+        final IndexedRecord datum = record.datum();
+        for(int i = 0; i < keyPositions.length; i++) {
+            key.put(i, datum.get(keyPositions[i]));
+        }
+        if(count == keyOffsets.length) {
+            final int capacity = (int)Math.min((long)count * 2, maxRecords);
+            keyOffsets = Arrays.copyOf(keyOffsets, capacity);
+            datumOffsets = Arrays.copyOf(datumOffsets, capacity);
+            order = new int[capacity];
+            merge = new int[capacity];
+        }
+
+        encoder = EncoderFactory.get().binaryEncoder(buffer, encoder);
+        keyOffsets[count] = buffer.size();
+        keyWriter.write(key, encoder);
+        encoder.flush();
+        datumOffsets[count] = buffer.size();
+        datumWriter.write(datum, encoder);
+        encoder.flush();
+        count++;
+
+        if(count == maxRecords || buffer.size() >= maxMemory) {
+            flush();
+        }
+    }
+
+    /**
+     * Sorts the buffered records and writes them, decoding each into a single reused record
+     */
+    private void flush() throws IOException {
+        if(count == 0) {
+            return;
+        }
+        peakMemory = Math.max(peakMemory, memory());
+        for(int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        sort(0, count);
+
+        final byte[] bytes = buffer.buffer();
+        for(int i = 0; i < count; i++) {
+            final int index = order[i];
+            final int end = index + 1 < count ? keyOffsets[index + 1] : buffer.size();
+            decoder = DecoderFactory.get().binaryDecoder(bytes, datumOffsets[index], end - datumOffsets[index], decoder);
+            wrapper.datum(datumReader.read(wrapper.datum(), decoder));
+            writer.write(wrapper, NullWritable.get());
+        }
+        buffer.reset();
+        count = 0;
+        runs++;
+    }
+
+    /**
+     * Bytes held by the buffer and the offset arrays
+     */
+    private long memory() {
+        return buffer.capacity() + 4L * (keyOffsets.length + datumOffsets.length + order.length + merge.length);
+    }
+
+    /**
+     * Stable merge sort of the record order, falling back to insertion sort for short ranges
+     */
+    private void sort(int from, int to) {
+        if(to - from <= 16) {
+            for(int i = from + 1; i < to; i++) {
+                final int index = order[i];
+                int j = i;
+                while(j > from && compare(order[j - 1], index) > 0) {
+                    order[j] = order[j - 1];
+                    j--;
+                }
+                order[j] = index;
+            }
+            return;
+        }
+        final int mid = (from + to) >>> 1;
+        sort(from, mid);
+        sort(mid, to);
+        if(compare(order[mid - 1], order[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(order, from, merge, from, to - from);
+        int left = from;
+        int right = mid;
+        for(int i = from; i < to; i++) {
+            if(right == to || left < mid && compare(merge[left], merge[right]) <= 0) {
+                order[i] = merge[left++];
+            } else {
+                order[i] = merge[right++];
+            }
+        }
+    }
+
+    private int compare(int a, int b) {
+        final byte[] bytes = buffer.buffer();
+        return BinaryData.compare(bytes, keyOffsets[a], bytes, keyOffsets[b], keySchema);
+    }
+
+    public void close(Reporter reporter) throws IOException {
+        flush();
+        writer.close(reporter);
+        reporter.incrCounter(AvroCounters.SORTED_RUNS, runs);
+        reporter.incrCounter(AvroCounters.SORT_BUFFER_BYTES, peakMemory);
+    }
+
+    /**
+     * Grows up to the memory limit, beyond it only as far as the last record needs
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        private final int limit;
+
+        private Buffer(int size, int limit) {
+            super(size);
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(count + 1L);
+            super.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity((long)count + len);
+            super.write(b, off, len);
+        }
+
+        private void ensureCapacity(long size) {
+            if(size > AvroSchemeOutputFormat.MAX_SORT_BUFFER_MEMORY) {
+                throw new IllegalStateException("Sort buffer can't hold more than "
+                        + AvroSchemeOutputFormat.MAX_SORT_BUFFER_MEMORY + " bytes");
+            }
+            if(size > buf.length) {
+                final long grown = Math.min((long)buf.length * 2, limit);
+                buf = Arrays.copyOf(buf, (int)Math.max(grown, size));
+            }
+        }
+
+        private byte[] buffer() {
+            return buf;
+        }
+
+        private int capacity() {
+            return buf.length;
+        }
+    }
+}
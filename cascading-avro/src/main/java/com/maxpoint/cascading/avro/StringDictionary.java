@@ -0,0 +1,119 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import org.apache.avro.util.Utf8;
+
+/**
+ * Interns decoded strings of a single field by their UTF-8 bytes, so repeated values are returned as the same
+ * {@link String} without being decoded again. Entries live in an open addressing table with hashes probed before
+ * keys. Once more than {@code limit} distinct values are seen, the table is dropped and every value is decoded.
+ * <p>
+ * Lookups are counted as {@link AvroCounters#INTERN_HITS} and {@link AvroCounters#INTERN_MISSES}.
+ */
+final class StringDictionary {
+    public static final int DEFAULT_LIMIT = 1024;
+
+    private final int limit;
+    private final AvroMetrics.Conversion metrics;
+    private int[] hashes;
+    private byte[][] keys;
+    private String[] values;
+    private int size;
+
+    StringDictionary(int limit, AvroMetrics.Conversion metrics) {
+        this.limit = limit;
+        this.metrics = metrics;
+        int capacity = 16;
+        // keeps the table at most half full
+        while(capacity < 2 * limit) {
+            capacity <<= 1;
+        }
+        hashes = new int[capacity];
+        keys = new byte[capacity][];
+        values = new String[capacity];
+    }
+
+    /**
+     * Tells whether the field had too many distinct values and is no longer interned
+     */
+    boolean isOverflowed() {
+        return keys == null;
+    }
+
+    String get(Utf8 val) {
+        if(keys == null) {
+            count(AvroCounters.INTERN_MISSES);
+            return val.toString();
+        }
+        final byte[] data = val.getBytes();
+        final int length = val.getByteLength();
+        final int hash = hash(data, length);
+        final int mask = keys.length - 1;
+        int slot = hash & mask;
+        byte[] key;
+        while((key = keys[slot]) != null) {
+            if(hashes[slot] == hash && equal(key, data, length)) {
+                count(AvroCounters.INTERN_HITS);
+                return values[slot];
+            }
+            slot = slot + 1 & mask;
+        }
+
+        count(AvroCounters.INTERN_MISSES);
+        final String result = val.toString();
+        if(size == limit) {
+            hashes = null;
+            keys = null;
+            values = null;
+            return result;
+        }
+        final byte[] copy = new byte[length];
+        System.arraycopy(data, 0, copy, 0, length);
+        hashes[slot] = hash;
+        keys[slot] = copy;
+        values[slot] = result;
+        size++;
+        return result;
+    }
+
+    private void count(AvroCounters counter) {
+        if(metrics != null) {
+            metrics.add(counter, 1);
+        }
+    }
+
+    private static int hash(byte[] data, int length) {
+        int result = 1;
+        for(int i = 0; i < length; i++) {
+            result = 31 * result + data[i];
+        }
+        // spreads high bits into the slot index
+        return result ^ result >>> 16;
+    }
+
+    private static boolean equal(byte[] key, byte[] data, int length) {
+        if(key.length != length) {
+            return false;
+        }
+        for(int i = 0; i < length; i++) {
+            if(key[i] != data[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
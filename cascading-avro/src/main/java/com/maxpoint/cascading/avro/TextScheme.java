@@ -21,6 +21,7 @@ import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
 import cascading.tuple.TupleEntry;
 import org.apache.avro.Schema;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.OutputCollector;
 
@@ -30,6 +31,16 @@ import java.util.LinkedHashMap;
 
 /**
  * A variant of {@link TextDelimited} scheme that gets field name and type information from an Avro schema.
+ * <p>
+ * With {@link #setFastParsing(boolean)} enabled, lines are parsed by a single pass over their bytes instead of regular
+ * expressions and generic type coercion, see {@link DelimitedParser}. Lines the fast parser can't handle exactly like
+ * {@link TextDelimited} are still parsed by it.
+ * <p>
+ * With {@link #setFastFormatting(boolean)} enabled, sunk lines are encoded straight into a reused buffer by
+ * {@link DelimitedFormatter}, producing the same lines as {@link TextDelimited}.
+ * <p>
+ * Record counts, sizes, null counts and timings are published as Hadoop counters with {@link #setMetrics(boolean)},
+ * see {@link AvroMetrics}.
  */
 @SuppressWarnings("deprecation")
 public class TextScheme extends AvroSchemeBase {
@@ -38,6 +49,19 @@ public class TextScheme extends AvroSchemeBase {
             Schema.Type.NULL, Schema.Type.STRING, Schema.Type.UNION);
 
     private final TextDelimited text;
+    private final String delimiter;
+    private final String quote;
+    private final Schema.Type[] types;
+    private boolean metrics;
+    private boolean fastParsing;
+    private boolean fastFormatting;
+    private transient DelimitedParser parser;
+    private transient DelimitedFormatter formatter;
+    private transient AvroMetrics.Conversion sourceMetrics;
+    private transient AvroMetrics.Conversion sinkMetrics;
+    private transient CountingCollector sinkCollector;
+    private transient Fields sinkIncomingFields;
+    private transient int[] sinkPositions;
 
     /**
      * Creates TAB-separated scheme
@@ -63,25 +87,220 @@ public class TextScheme extends AvroSchemeBase {
         setSourceFields(fields);
 
         text = new TextDelimited(fields, delimiter, quote, inferClasses(schemaFields.values()));
+        this.delimiter = delimiter;
+        this.quote = quote;
+        types = new Schema.Type[schemaFields.size()];
+        int i = 0;
+        for(FieldType typeInfo : schemaFields.values()) {
+            types[i++] = typeInfo.type;
+        }
+    }
+
+    public boolean isFastParsing() {
+        return fastParsing;
+    }
+
+    /**
+     * Enables the single pass parser for sourced lines, quotes must be a single ASCII character
+     */
+    public void setFastParsing(boolean fastParsing) {
+        if(fastParsing) {
+            // fail early on unsupported quotes
+            new DelimitedParser(delimiter, quote, types);
+        }
+        this.fastParsing = fastParsing;
+    }
+
+    public boolean isMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Enables publishing of {@link AvroCounters} by tasks sourcing or sinking this scheme
+     */
+    public void setMetrics(boolean metrics) {
+        this.metrics = metrics;
+    }
+
+    public boolean isFastFormatting() {
+        return fastFormatting;
+    }
+
+    /**
+     * Enables formatting of sunk lines into a reused buffer, quotes must be a single ASCII character
+     */
+    public void setFastFormatting(boolean fastFormatting) {
+        if(fastFormatting) {
+            // fail early on unsupported quotes
+            new DelimitedFormatter(delimiter, quote);
+        }
+        this.fastFormatting = fastFormatting;
     }
 
     @Override
     public void sinkInit(Tap tap, JobConf conf) throws IOException {
         text.sinkInit(tap, conf);
+        if(AvroMetrics.isEnabled(conf, metrics)) {
+            MeteredOutputFormat.install(conf);
+        }
     }
 
     @Override
     public void sourceInit(Tap tap, JobConf conf) {
         text.sourceInit(tap, conf);
+        if(AvroMetrics.isEnabled(conf, metrics)) {
+            MeteredInputFormat.install(conf);
+        }
     }
 
     @Override
     public Tuple source(Object key, Object value) {
+        if(!metrics) {
+            return parse(key, value);
+        }
+
+        if(sourceMetrics == null) {
+            sourceMetrics = AvroMetrics.conversion(AvroCounters.SOURCE_CONVERT_NANOS, "NULLS_READ_", getSourceFields());
+        }
+        final boolean timed = sourceMetrics.start();
+        final Tuple result = parse(key, value);
+        if(timed) {
+            sourceMetrics.stop();
+        }
+        sourceMetrics.countNulls(result);
+        return result;
+    }
+
+    private Tuple parse(Object key, Object value) {
+        if(fastParsing) {
+            if(parser == null) {
+                parser = new DelimitedParser(delimiter, quote, types);
+            }
+            final Tuple result = parser.parse((Text)value);
+            if(result != null) {
+                return result;
+            }
+        }
         return text.source(key, value);
     }
 
     @Override
     public void sink(TupleEntry tupleEntry, OutputCollector outputCollector) throws IOException {
-        text.sink(tupleEntry, outputCollector);
+        if(!metrics) {
+            format(tupleEntry, outputCollector);
+            return;
+        }
+
+        if(sinkMetrics == null) {
+            sinkMetrics = AvroMetrics.conversion(AvroCounters.SINK_CONVERT_NANOS, "NULLS_WRITTEN_", getSinkFields());
+            sinkCollector = new CountingCollector();
+        }
+        sinkCollector.output = outputCollector;
+        final boolean timed = sinkMetrics.start();
+        format(tupleEntry, sinkCollector);
+        if(timed) {
+            sinkMetrics.stop();
+        }
+        sinkMetrics.countNulls(tupleEntry.getTuple(), sinkPositions(tupleEntry.getFields()));
+        sinkMetrics.add(AvroCounters.BYTES_ENCODED, sinkCollector.flush());
+    }
+
+    /**
+     * Resolves positions of sink fields in the incoming tuples, only when the incoming fields change
+     */
+    private int[] sinkPositions(Fields incoming) {
+        if(incoming != sinkIncomingFields) {
+            final Fields sinkFields = getSinkFields();
+            final int[] positions = new int[sinkFields.size()];
+            for(int i = 0; i < positions.length; i++) {
+                positions[i] = incoming.getPos(sinkFields.get(i));
+            }
+            sinkPositions = positions;
+            sinkIncomingFields = incoming;
+        }
+        return sinkPositions;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void format(TupleEntry tupleEntry, OutputCollector outputCollector) throws IOException {
+        if(!fastFormatting) {
+            text.sink(tupleEntry, outputCollector);
+            return;
+        }
+        if(formatter == null) {
+            formatter = new DelimitedFormatter(delimiter, quote);
+        }
+        outputCollector.collect(null, formatter.format(tupleEntry, getSinkFields()));
+    }
+
+    /**
+     * Holds back the line formatted by the text scheme, so that writing it isn't measured as conversion, and measures
+     * its length including the line terminator
+     */
+    private static final class CountingCollector implements OutputCollector {
+        private OutputCollector output;
+        private Object key;
+        private Object value;
+        private long bytes;
+
+        public void collect(Object key, Object value) throws IOException {
+            forward();
+            this.key = key;
+            this.value = value;
+        }
+
+        /**
+         * Writes the held back line and returns length of lines written since the last flush
+         */
+        private long flush() throws IOException {
+            forward();
+            final long result = bytes;
+            bytes = 0;
+            return result;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void forward() throws IOException {
+            if(value != null) {
+                bytes += length(value) + 1;
+                output.collect(key, value);
+                key = null;
+                value = null;
+            }
+        }
+
+        /**
+         * Returns encoded length of a line, collected as text by the fast formatter or as a tuple holding the line by
+         * the text scheme
+         */
+        private static long length(Object line) {
+            if(line instanceof Text) {
+                return ((Text)line).getLength();
+            }
+            if(line instanceof Tuple && ((Tuple)line).size() == 1) {
+                final Object element = ((Tuple)line).getObject(0);
+                return element == null ? 0 : utf8Length(element.toString());
+            }
+            return utf8Length(line.toString());
+        }
+
+        private static long utf8Length(String line) {
+            long result = 0;
+            for(int i = 0; i < line.length(); i++) {
+                final char c = line.charAt(i);
+                if(c < 0x80) {
+                    result++;
+                } else if(c < 0x800) {
+                    result += 2;
+                } else if(Character.isHighSurrogate(c) && i + 1 < line.length()
+                        && Character.isLowSurrogate(line.charAt(i + 1))) {
+                    result += 4;
+                    i++;
+                } else {
+                    result += 3;
+                }
+            }
+            return result;
+        }
     }
 }
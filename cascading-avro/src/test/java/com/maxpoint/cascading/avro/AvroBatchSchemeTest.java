@@ -0,0 +1,141 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import cascading.tap.Lfs;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import cascading.tuple.TupleEntryIterator;
+import org.apache.avro.Schema;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Class AvroBatchSchemeTest
+ */
+public class AvroBatchSchemeTest {
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Test
+    public void testBatches() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test1.avsc"));
+        final AvroScheme scheme = new AvroScheme(schema);
+
+        final Lfs lfs = new Lfs(scheme, tempDir.getRoot().toString());
+        final TupleEntryCollector collector = lfs.openForWrite(new JobConf());
+        final Fields fields = new Fields("aBoolean", "anInt", "aLong", "aDouble", "aFloat", "aBytes", "aFixed", "aNull", "aString");
+        for(int i = 0; i < 5; i++) {
+            collector.add(new TupleEntry(fields, new Tuple(i % 2 == 0, i, 10L * i, 0.5 * i, 4.0F, new BytesWritable(new byte[0]),
+                    new BytesWritable(new byte[16]), null, i == 3 ? null : "type" + i % 2)));
+        }
+        collector.close();
+
+        final AvroBatchScheme batchScheme = new AvroBatchScheme(new AvroScheme(schema, new Fields("aLong", "aString", "aBoolean")), 2);
+        assertEquals(AvroBatchScheme.BATCH, batchScheme.getSourceFields());
+        final TupleEntryIterator iterator = new Lfs(batchScheme, tempDir.getRoot().toString()).openForRead(new JobConf());
+        long sum = 0;
+        int rows = 0;
+        int batches = 0;
+        while(iterator.hasNext()) {
+            final ColumnBatch batch = (ColumnBatch)iterator.next().getObject(0);
+            final long[] longs = batch.getLongs(batch.getColumn("aLong"));
+            final boolean[] booleans = batch.getBooleans(batch.getColumn("aBoolean"));
+            final int strings = batch.getColumn("aString");
+            for(int i = 0; i < batch.size(); i++, rows++) {
+                sum += longs[i];
+                assertEquals(rows % 2 == 0, booleans[i]);
+                if(rows == 3) {
+                    assertTrue(batch.isNull(strings, i));
+                    assertEquals(-1, batch.getCodes(strings)[i]);
+                    assertNull(batch.getString(strings, i));
+                } else {
+                    assertFalse(batch.isNull(strings, i));
+                    assertEquals("type" + rows % 2, batch.getString(strings, i));
+                }
+            }
+            batches++;
+        }
+        assertEquals(5, rows);
+        assertEquals(3, batches);
+        assertEquals(100L, sum);
+    }
+
+    @Test
+    public void testPredicateAndPartitionFields() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test1.avsc"));
+        final AvroScheme scheme = new AvroScheme(schema);
+
+        final Lfs lfs = new Lfs(scheme, new File(tempDir.getRoot(), "dt=2012-10-01").toString());
+        final TupleEntryCollector collector = lfs.openForWrite(new JobConf());
+        final Fields fields = new Fields("aBoolean", "anInt", "aLong", "aDouble", "aFloat", "aBytes", "aFixed", "aNull", "aString");
+        for(int i = 0; i < 5; i++) {
+            collector.add(new TupleEntry(fields, new Tuple(true, i, 10L * i, 0.5 * i, 4.0F, new BytesWritable(new byte[0]),
+                    new BytesWritable(new byte[16]), null, "type")));
+        }
+        collector.close();
+
+        // the predicate field is read after the projection, but only sourced fields get columns
+        final AvroScheme projected = new AvroScheme(schema, new Fields("aLong"));
+        projected.setPredicate(AvroPredicate.ge("anInt", 2));
+        projected.setPartitionFields(new Fields("dt"));
+        final AvroBatchScheme batchScheme = new AvroBatchScheme(projected);
+        final TupleEntryIterator iterator = new Lfs(batchScheme, tempDir.getRoot().toString()).openForRead(new JobConf());
+        long sum = 0;
+        int rows = 0;
+        while(iterator.hasNext()) {
+            final ColumnBatch batch = (ColumnBatch)iterator.next().getObject(0);
+            final long[] longs = batch.getLongs(batch.getColumn("aLong"));
+            final int dt = batch.getColumn("dt");
+            assertEquals(Schema.Type.STRING, batch.getType(dt));
+            for(int i = 0; i < batch.size(); i++, rows++) {
+                sum += longs[i];
+                assertEquals("2012-10-01", batch.getString(dt, i));
+            }
+        }
+        assertEquals(3, rows);
+        assertEquals(90L, sum);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBinaryField() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test1.avsc"));
+        new AvroBatchScheme(new AvroScheme(schema, new Fields("aLong", "aBytes")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSink() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test1.avsc"));
+        final AvroBatchScheme batchScheme = new AvroBatchScheme(new AvroScheme(schema, new Fields("aLong")));
+        batchScheme.sinkInit(new Lfs(batchScheme, tempDir.getRoot().toString()), new JobConf());
+    }
+}
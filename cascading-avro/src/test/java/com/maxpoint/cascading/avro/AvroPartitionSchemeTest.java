@@ -0,0 +1,203 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import cascading.tap.Lfs;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import cascading.tuple.TupleEntryIterator;
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Class AvroPartitionSchemeTest
+ */
+public class AvroPartitionSchemeTest {
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Test
+    public void testPartitionedSink() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test1.avsc"));
+        final AvroPartitionScheme scheme = new AvroPartitionScheme(schema, new Fields("aString", "aBoolean"));
+        // forces files to be closed and reopened
+        scheme.setMaxOpenWriters(1);
+
+        final Lfs lfs = new Lfs(scheme, tempDir.getRoot().toString());
+        final TupleEntryCollector collector = lfs.openForWrite(new JobConf());
+        write(scheme, collector, "click", false, 1);
+        write(scheme, collector, "view/all", true, 2);
+        write(scheme, collector, "click", false, 3);
+        write(scheme, collector, null, true, 4);
+        collector.close();
+
+        assertEquals(4L, sum("aString=click/aBoolean=false"));
+        assertEquals(2L, sum("aString=view%2Fall/aBoolean=true"));
+        assertEquals(4L, sum("aString=" + AvroPartitionScheme.NULL_VALUE + "/aBoolean=true"));
+        assertEquals(2, new File(tempDir.getRoot(), "aString=click/aBoolean=false").list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".avro");
+            }
+        }).length);
+    }
+
+    @Test
+    public void testMaxFileSize() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test1.avsc"));
+        final AvroPartitionScheme scheme = new AvroPartitionScheme(schema, new Fields("aString"));
+        scheme.setMaxOpenWriters(1);
+        scheme.setSinkConfig(new AvroSinkConfig(DataFileConstants.DEFLATE_CODEC, 6, 256).setMaxFileSize(2048));
+
+        final Lfs lfs = new Lfs(scheme, tempDir.getRoot().toString());
+        final TupleEntryCollector collector = lfs.openForWrite(new JobConf());
+        for(long i = 0; i < 500; i++) {
+            write(scheme, collector, "click", false, i);
+        }
+        write(scheme, collector, "view", false, 1);
+        // the reopened partition continues the sequence of its rolled files
+        for(long i = 500; i < 1000; i++) {
+            write(scheme, collector, "click", false, i);
+        }
+        collector.close();
+
+        assertEquals(499500L, sum("aString=click"));
+        assertEquals(1L, sum("aString=view"));
+        final File[] parts = new File(tempDir.getRoot(), "aString=click").listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".avro");
+            }
+        });
+        assertTrue(parts.length > 2);
+        for(File part : parts) {
+            assertTrue(part.length() < 2048 + 1024);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSortFields() throws Exception {
+        final Schema schema = new Schema.Parser().parse(getClass().getResourceAsStream("test1.avsc"));
+        new AvroPartitionScheme(schema, new Fields("aString")).setSortFields(new Fields("aLong"));
+    }
+
+    @Test
+    public void testPartitionedSource() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test1.avsc"));
+        final AvroPartitionScheme sinkScheme = new AvroPartitionScheme(schema, new Fields("aString", "aBoolean"));
+        TupleEntryCollector collector = new Lfs(sinkScheme, new File(tempDir.getRoot(), "region=us").toString())
+                .openForWrite(new JobConf());
+        write(sinkScheme, collector, "click", false, 1);
+        write(sinkScheme, collector, "view", true, 2);
+        write(sinkScheme, collector, "click", false, 3);
+        collector.close();
+        collector = new Lfs(sinkScheme, new File(tempDir.getRoot(), "region=eu").toString()).openForWrite(new JobConf());
+        write(sinkScheme, collector, "click", false, 10);
+        collector.close();
+
+        final AvroScheme scheme = new AvroScheme(schema, new Fields("aLong"));
+        scheme.setPartitionFields(new Fields("region", "aString", "aBoolean"));
+        scheme.setPartitionPredicate(AvroPredicate.and(AvroPredicate.eq("region", "us"),
+                AvroPredicate.eq("aBoolean", "false")));
+        assertEquals(new Fields("aLong", "region"), scheme.getSourceFields());
+
+        final TupleEntryIterator iterator = new Lfs(scheme, tempDir.getRoot().toString()).openForRead(new JobConf());
+        long sum = 0;
+        while(iterator.hasNext()) {
+            final TupleEntry entry = iterator.next();
+            assertEquals("us", entry.getString("region"));
+            sum += entry.getLong("aLong");
+        }
+        iterator.close();
+        assertEquals(4L, sum);
+    }
+
+    @Test
+    public void testPartialPredicate() throws Exception {
+        final Schema schema = Partitions.schema(Arrays.asList("dt", "cust"));
+        final AvroPredicate predicate = AvroPredicate.and(AvroPredicate.ge("dt", "2012-10-01"),
+                AvroPredicate.eq("cust", "42"));
+        predicate.bind(schema);
+
+        final GenericData.Record values = new GenericData.Record(schema);
+        values.put(0, new Utf8("2012-09-30"));
+        assertEquals(Boolean.FALSE, predicate.matches(values, new boolean[] {true, false}));
+        values.put(0, new Utf8("2012-10-02"));
+        assertNull(predicate.matches(values, new boolean[] {true, false}));
+        values.put(1, new Utf8("42"));
+        assertEquals(Boolean.TRUE, predicate.matches(values, new boolean[] {true, true}));
+        assertEquals(Boolean.FALSE, AvroPredicate.not(predicate).matches(values, new boolean[] {true, true}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBytesPartition() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test1.avsc"));
+        new AvroPartitionScheme(schema, new Fields("aBytes"));
+    }
+
+    @Test
+    public void testEscape() throws Exception {
+        final StringBuilder escaped = new StringBuilder();
+        AvroPartitionScheme.escape("2012-10-01 12:00/x=100%", escaped);
+        assertEquals("2012-10-01 12%3A00%2Fx%3D100%25", escaped.toString());
+        assertEquals("2012-10-01 12:00/x=100%", AvroPartitionScheme.unescape(escaped.toString()));
+    }
+
+    private void write(AvroPartitionScheme scheme, TupleEntryCollector collector, String aString, boolean aBoolean,
+                       long aLong) {
+        final Fields fields = new Fields("aBoolean", "anInt", "aLong", "aDouble", "aFloat", "aBytes", "aFixed", "aNull", "aString");
+        final TupleEntry te = new TupleEntry(fields, new Tuple(aBoolean, 1, aLong, 3.0, 4.0F,
+                new BytesWritable(new byte[] {1, 2, 3}), new BytesWritable(new byte[16]), null, aString));
+        collector.add(te.selectTuple(scheme.getSinkFields()));
+    }
+
+    /**
+     * Sums aLong of records in a partition directory
+     */
+    private long sum(String partition) throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test1.avsc"));
+        final Lfs lfs = new Lfs(new AvroScheme(schema), new File(tempDir.getRoot(), partition).toString());
+        final TupleEntryIterator iterator = lfs.openForRead(new JobConf());
+        long result = 0;
+        assertTrue(iterator.hasNext());
+        while(iterator.hasNext()) {
+            result += iterator.next().getLong("aLong");
+        }
+        assertFalse(iterator.hasNext());
+        return result;
+    }
+}
@@ -22,19 +22,60 @@ import cascading.tuple.TupleEntry;
 import cascading.tuple.TupleEntryCollector;
 import cascading.tuple.TupleEntryIterator;
 import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.file.FileReader;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.mapred.AvroJob;
+import org.apache.avro.mapred.AvroOutputFormat;
+import org.apache.avro.mapred.AvroWrapper;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
 import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -77,15 +118,827 @@ public class AvroSchemeTest {
         assertNull(readEntry2.get("aString"));
     }
 
+    @Test
+    public void testProjection() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test1.avsc"));
+        final AvroScheme scheme = new AvroScheme(schema);
+
+        final Lfs lfs = new Lfs(scheme, tempDir.getRoot().toString());
+        final TupleEntryCollector collector = lfs.openForWrite(new JobConf());
+        final Fields fields = new Fields("aBoolean", "anInt", "aLong", "aDouble", "aFloat", "aBytes", "aFixed", "aNull", "aString");
+        write(scheme, collector, new TupleEntry(fields, new Tuple(false, 1, 2L, 3.0, 4.0F, new BytesWritable(new byte[] {1, 2, 3}),
+                new BytesWritable(new byte[16]), null, "test-string")));
+        collector.close();
+
+        final AvroScheme projected = new AvroScheme(schema, new Fields("aString", "aLong"));
+        assertEquals(new Fields("aString", "aLong"), projected.getSourceFields());
+        assertEquals(scheme.getSinkFields(), projected.getSinkFields());
+
+        final TupleEntryIterator iterator = new Lfs(projected, tempDir.getRoot().toString()).openForRead(new JobConf());
+        assertTrue(iterator.hasNext());
+        final TupleEntry readEntry = iterator.next();
+
+        assertEquals(2, readEntry.getTuple().size());
+        assertEquals("test-string", readEntry.get("aString"));
+        assertEquals(2L, readEntry.getLong("aLong"));
+    }
+
+    @Test
+    public void testReuseTuples() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test1.avsc"));
+        final AvroScheme scheme = new AvroScheme(schema);
+        scheme.setReuseTuples(true);
+
+        final Lfs lfs = new Lfs(scheme, tempDir.getRoot().toString());
+        final TupleEntryCollector collector = lfs.openForWrite(new JobConf());
+        final Fields fields = new Fields("aBoolean", "anInt", "aLong", "aDouble", "aFloat", "aBytes", "aFixed", "aNull", "aString");
+        write(scheme, collector, new TupleEntry(fields, new Tuple(false, 1, 2L, 3.0, 4.0F, new BytesWritable(new byte[] {1, 2, 3}),
+                new BytesWritable(new byte[16]), null, "test-string")));
+        write(scheme, collector, new TupleEntry(fields, new Tuple(true, 5, 6L, 7.0, 8.0F, new BytesWritable(new byte[] {4}),
+                new BytesWritable(new byte[] {1,2,3,4,5,6,7,8,9,0,1,2,3,4,5,6}), null, null)));
+        collector.close();
+
+        final TupleEntryIterator iterator = lfs.openForRead(new JobConf());
+        assertTrue(iterator.hasNext());
+        final TupleEntry readEntry1 = iterator.next();
+        assertEquals(1, readEntry1.getInteger("anInt"));
+        assertEquals(new BytesWritable(new byte[] {1, 2, 3}), readEntry1.getObject("aBytes"));
+        assertEquals(new BytesWritable(new byte[16]), readEntry1.getObject("aFixed"));
+        assertEquals("test-string", readEntry1.get("aString"));
+
+        assertTrue(iterator.hasNext());
+        final TupleEntry readEntry2 = iterator.next();
+        assertEquals(5, readEntry2.getInteger("anInt"));
+        assertEquals(new BytesWritable(new byte[] {4}), readEntry2.getObject("aBytes"));
+        assertEquals(new BytesWritable(new byte[] {1,2,3,4,5,6,7,8,9,0,1,2,3,4,5,6}), readEntry2.getObject("aFixed"));
+        assertNull(readEntry2.get("aString"));
+    }
+
+    @Test
+    public void testLazyStrings() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test1.avsc"));
+        final AvroScheme scheme = new AvroScheme(schema);
+        scheme.setLazyStrings(true);
+
+        final Lfs lfs = new Lfs(scheme, tempDir.getRoot().toString());
+        final TupleEntryCollector collector = lfs.openForWrite(new JobConf());
+        final Fields fields = new Fields("aBoolean", "anInt", "aLong", "aDouble", "aFloat", "aBytes", "aFixed", "aNull", "aString");
+        write(scheme, collector, new TupleEntry(fields, new Tuple(false, 1, 2L, 3.0, 4.0F, new BytesWritable(new byte[0]),
+                new BytesWritable(new byte[16]), null, "caf\u00e9 \ud83d\ude00")));
+        write(scheme, collector, new TupleEntry(fields, new Tuple(false, 1, 2L, 3.0, 4.0F, new BytesWritable(new byte[0]),
+                new BytesWritable(new byte[16]), null, null)));
+        collector.close();
+
+        final TupleEntryIterator iterator = lfs.openForRead(new JobConf());
+        final Comparable value = iterator.next().get("aString");
+        assertTrue(value instanceof LazyString);
+        assertEquals("caf\u00e9 \ud83d\ude00", value.toString());
+        assertEquals(new LazyString("caf\u00e9 \ud83d\ude00"), value);
+        assertEquals("caf\u00e9 \ud83d\ude00".hashCode(), new LazyString("caf\u00e9 \ud83d\ude00").hashCode());
+        assertNull(iterator.next().get("aString"));
+
+        // lazy values are written back without decoding
+        final File copy = tempDir.newFolder("copy");
+        final Lfs copyLfs = new Lfs(scheme, copy.toString());
+        final TupleEntryCollector copyCollector = copyLfs.openForWrite(new JobConf());
+        write(scheme, copyCollector, new TupleEntry(fields, new Tuple(false, 1, 2L, 3.0, 4.0F, new BytesWritable(new byte[0]),
+                new BytesWritable(new byte[16]), null, value)));
+        copyCollector.close();
+        assertEquals(value, copyLfs.openForRead(new JobConf()).next().get("aString"));
+    }
+
+    @Test
+    public void testConverter() throws Exception {
+        final AvroScheme scheme = new AvroScheme(Test1Converter.SCHEMA);
+        scheme.setConverter(Test1Converter.class);
+
+        final Lfs lfs = new Lfs(scheme, tempDir.getRoot().toString());
+        final TupleEntryCollector collector = lfs.openForWrite(new JobConf());
+        final Fields fields = new Fields("aBoolean", "anInt", "aLong", "aDouble", "aFloat", "aBytes", "aFixed", "aNull", "aString");
+        write(scheme, collector, new TupleEntry(fields, new Tuple(false, 1, 2L, 3.0, 4.0F, new BytesWritable(new byte[] {1, 2, 3}),
+                new BytesWritable(new byte[16]), null, "test-string")));
+        write(scheme, collector, new TupleEntry(fields, new Tuple(true, 5, 6L, 7.0, 8.0F, new BytesWritable(new byte[] {4}),
+                new BytesWritable(new byte[] {1,2,3,4,5,6,7,8,9,0,1,2,3,4,5,6}), null, null)));
+        collector.close();
+
+        final TupleEntryIterator iterator = lfs.openForRead(new JobConf());
+        assertTrue(iterator.hasNext());
+        final TupleEntry readEntry1 = iterator.next();
+        assertEquals(false, readEntry1.getBoolean("aBoolean"));
+        assertEquals(2L, readEntry1.getLong("aLong"));
+        assertEquals(4.0F, readEntry1.getFloat("aFloat"), 0.01);
+        assertEquals("test-string", readEntry1.get("aString"));
+        assertEquals(new BytesWritable(new byte[] {1, 2, 3}), readEntry1.getObject("aBytes"));
+
+        assertTrue(iterator.hasNext());
+        final TupleEntry readEntry2 = iterator.next();
+        assertEquals(5, readEntry2.getInteger("anInt"));
+        assertEquals(new BytesWritable(new byte[] {1,2,3,4,5,6,7,8,9,0,1,2,3,4,5,6}), readEntry2.getObject("aFixed"));
+        assertNull(readEntry2.get("aString"));
+    }
+
+    @Test
+    public void testConverterWrapsBinaryValues() throws Exception {
+        final byte[] bytes = {1, 2, 3};
+        final byte[] fixed = new byte[16];
+        final GenericData.Record record = new GenericData.Record(Test1Converter.SCHEMA);
+        record.put(6, ByteBuffer.wrap(bytes));
+        record.put(7, new GenericData.Fixed(Test1Converter.SCHEMA.getField("aFixed").schema(), fixed));
+
+        final Tuple tuple = Tuple.size(9);
+        new Test1Converter().fromAvro(record, tuple);
+        assertSame(bytes, ((BytesWritable)tuple.getObject(6)).getBytes());
+        assertSame(fixed, ((BytesWritable)tuple.getObject(7)).getBytes());
+        assertNull(record.get(6));
+        assertNull(record.get(7));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConverterSchemaMismatch() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test2.avsc"));
+        new AvroScheme(schema).setConverter(Test1Converter.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConverterWithLazyStrings() throws Exception {
+        final AvroScheme scheme = new AvroScheme(Test1Converter.SCHEMA);
+        scheme.setLazyStrings(true);
+        scheme.setConverter(Test1Converter.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLazyStringsWithConverter() throws Exception {
+        final AvroScheme scheme = new AvroScheme(Test1Converter.SCHEMA);
+        scheme.setConverter(Test1Converter.class);
+        scheme.setLazyStrings(true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConverterWithInternFields() throws Exception {
+        final AvroScheme scheme = new AvroScheme(Test1Converter.SCHEMA);
+        scheme.setInternFields(new Fields("aString"));
+        scheme.setConverter(Test1Converter.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInternFieldsWithConverter() throws Exception {
+        final AvroScheme scheme = new AvroScheme(Test1Converter.SCHEMA);
+        scheme.setConverter(Test1Converter.class);
+        scheme.setInternFields(new Fields("aString"));
+    }
+
+    @Test
+    public void testConverterMatchesTemplate() throws Exception {
+        // the converter used above must stay the output of the plugin template, as pinned by the plugin tests
+        final File expected = new File("../cascading-avro-maven-plugin/src/test/resources/com/maxpoint/cascading/avro/expectedConverter.txt");
+        final File actual = new File("src/test/java/com/maxpoint/cascading/avro/Test1Converter.java");
+        assertEquals(read(expected), read(actual));
+    }
+
+    private static String read(File file) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IOUtils.copyBytes(new FileInputStream(file), out, 4096, true);
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void testSinkBytesLength() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test1.avsc"));
+        final AvroScheme scheme = new AvroScheme(schema);
+
+        // capacity of the backing array is larger than the value
+        final BytesWritable bytes = new BytesWritable(new byte[] {1, 2, 3, 4});
+        bytes.setSize(2);
+
+        final Lfs lfs = new Lfs(scheme, tempDir.getRoot().toString());
+        final TupleEntryCollector collector = lfs.openForWrite(new JobConf());
+        final Fields fields = new Fields("aBoolean", "anInt", "aLong", "aDouble", "aFloat", "aBytes", "aFixed", "aNull", "aString");
+        write(scheme, collector, new TupleEntry(fields, new Tuple(false, 1, 2L, 3.0, 4.0F, bytes,
+                new BytesWritable(new byte[16]), null, "test-string")));
+        collector.close();
+
+        final TupleEntryIterator iterator = lfs.openForRead(new JobConf());
+        assertTrue(iterator.hasNext());
+        assertEquals(new BytesWritable(new byte[] {1, 2}), iterator.next().getObject("aBytes"));
+    }
+
+    @Test
+    public void testSourceBytesNotShared() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test1.avsc"));
+        final AvroScheme scheme = new AvroScheme(schema);
+
+        final Lfs lfs = new Lfs(scheme, tempDir.getRoot().toString());
+        final TupleEntryCollector collector = lfs.openForWrite(new JobConf());
+        final Fields fields = new Fields("aBoolean", "anInt", "aLong", "aDouble", "aFloat", "aBytes", "aFixed", "aNull", "aString");
+        for(int i = 0; i < 3; i++) {
+            final byte[] fixed = new byte[16];
+            fixed[0] = (byte)i;
+            write(scheme, collector, new TupleEntry(fields, new Tuple(false, i, 2L, 3.0, 4.0F,
+                    new BytesWritable(new byte[] {(byte)i, 1, 2}), new BytesWritable(fixed), null, null)));
+        }
+        collector.close();
+
+        // values of earlier records must survive reading the next ones
+        final List<Tuple> tuples = new ArrayList<Tuple>();
+        final TupleEntryIterator iterator = lfs.openForRead(new JobConf());
+        while(iterator.hasNext()) {
+            tuples.add(iterator.next().getTuple());
+        }
+        assertEquals(3, tuples.size());
+        for(int i = 0; i < 3; i++) {
+            final BytesWritable bytes = (BytesWritable)tuples.get(i).getObject(5);
+            assertEquals(new BytesWritable(new byte[] {(byte)i, 1, 2}), bytes);
+            assertEquals(3, bytes.getBytes().length);
+            assertEquals(i, ((BytesWritable)tuples.get(i).getObject(6)).getBytes()[0]);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSinkFixedLength() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test1.avsc"));
+        final AvroScheme scheme = new AvroScheme(schema);
+
+        scheme.sink(new TupleEntry(scheme.getSinkFields(), new Tuple(false, 1, 2L, 3.0, 4.0F, new BytesWritable(new byte[0]),
+                new BytesWritable(new byte[15]), null, null)), new OutputCollector<Object, Object>() {
+            public void collect(Object key, Object value) {
+            }
+        });
+    }
+
+    @Test
+    public void testSinkConfig() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test2.avsc"));
+        final AvroScheme scheme = new AvroScheme(schema);
+        scheme.setSinkConfig(new AvroSinkConfig(DataFileConstants.SNAPPY_CODEC, 1, 4096));
+
+        final Lfs lfs = new Lfs(scheme, tempDir.getRoot().toString());
+        final TupleEntryCollector collector = lfs.openForWrite(new JobConf());
+        final Fields fields = new Fields("aBoolean", "anInt", "aLong", "aDouble", "aFloat", "aNull", "aString");
+        write(scheme, collector, new TupleEntry(fields, new Tuple(false, 1, 2L, 3.0, 4.0F, null, "test-string")));
+        collector.close();
+
+        final TupleEntryIterator iterator = lfs.openForRead(new JobConf());
+        assertTrue(iterator.hasNext());
+        assertEquals("test-string", iterator.next().get("aString"));
+    }
+
+    @Test
+    public void testParallelCompression() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test2.avsc"));
+        final AvroScheme scheme = new AvroScheme(schema);
+        scheme.setIndexFields(new Fields("aLong"));
+        // many small blocks, so several are compressed at once
+        scheme.setSinkConfig(new AvroSinkConfig(DataFileConstants.DEFLATE_CODEC, 6, 64).setCompressionThreads(2));
+
+        final Lfs lfs = new Lfs(scheme, tempDir.getRoot().toString());
+        final TupleEntryCollector collector = lfs.openForWrite(new JobConf());
+        final Fields fields = new Fields("aBoolean", "anInt", "aLong", "aDouble", "aFloat", "aNull", "aString");
+        for(long i = 0; i < 2000; i++) {
+            write(scheme, collector, new TupleEntry(fields, new Tuple(false, 1, i, 3.0, 4.0F, null, "value-" + i)));
+        }
+        collector.close();
+
+        final TupleEntryIterator iterator = lfs.openForRead(new JobConf());
+        for(long i = 0; i < 2000; i++) {
+            assertTrue(iterator.hasNext());
+            final TupleEntry entry = iterator.next();
+            assertEquals(i, entry.getLong("aLong"));
+            assertEquals("value-" + i, entry.get("aString"));
+        }
+        assertFalse(iterator.hasNext());
+
+        // blocks are placed in the index once written
+        final AvroScheme filtered = new AvroScheme(schema, new Fields("aLong"));
+        filtered.setPredicate(AvroPredicate.ge("aLong", 1995L));
+        final TupleEntryIterator filteredIterator = new Lfs(filtered, tempDir.getRoot().toString()).openForRead(new JobConf());
+        for(long i = 1995; i < 2000; i++) {
+            assertTrue(filteredIterator.hasNext());
+            assertEquals(i, filteredIterator.next().getLong("aLong"));
+        }
+        assertFalse(filteredIterator.hasNext());
+    }
+
+    @Test
+    public void testMaxFileSize() throws Exception {
+        // files end with the block that reached the size
+        assertMaxFileSize(new AvroSinkConfig(DataFileConstants.DEFLATE_CODEC, 6, 256).setMaxFileSize(4096), 4096 + 1024);
+    }
+
+    @Test
+    public void testMaxFileSizeWithCompressionThreads() throws Exception {
+        // blocks still compressing when the size is reached end up in the same file, one per thread plus one
+        final int threads = 2;
+        assertMaxFileSize(new AvroSinkConfig(DataFileConstants.DEFLATE_CODEC, 6, 256).setMaxFileSize(4096)
+                .setCompressionThreads(threads), 4096 + (threads + 2) * 512);
+    }
+
+    private void assertMaxFileSize(AvroSinkConfig config, long maxLength) throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test2.avsc"));
+        final AvroScheme scheme = new AvroScheme(schema);
+        scheme.setSinkConfig(config);
+
+        final Lfs lfs = new Lfs(scheme, tempDir.getRoot().toString());
+        final TupleEntryCollector collector = lfs.openForWrite(new JobConf());
+        final Fields fields = new Fields("aBoolean", "anInt", "aLong", "aDouble", "aFloat", "aNull", "aString");
+        for(long i = 0; i < 2000; i++) {
+            write(scheme, collector, new TupleEntry(fields, new Tuple(false, 1, i, 3.0, 4.0F, null, "value-" + i)));
+        }
+        collector.close();
+
+        final File[] parts = tempDir.getRoot().listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith("part-00000") && name.endsWith(AvroOutputFormat.EXT);
+            }
+        });
+        assertTrue(parts.length > 1);
+        for(File part : parts) {
+            assertTrue(part.length() < maxLength);
+        }
+
+        final Set<Long> values = new HashSet<Long>();
+        final TupleEntryIterator iterator = lfs.openForRead(new JobConf());
+        while(iterator.hasNext()) {
+            assertTrue(values.add(iterator.next().getLong("aLong")));
+        }
+        assertEquals(2000, values.size());
+    }
+
+    @Test
+    public void testSortFields() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test2.avsc"));
+        final AvroScheme scheme = new AvroScheme(schema);
+        scheme.setSortFields(new Fields("aString", "aLong"));
+        scheme.setSortBufferSize(100);
+
+        final Lfs lfs = new Lfs(scheme, tempDir.getRoot().toString());
+        final TupleEntryCollector collector = lfs.openForWrite(new JobConf());
+        final Fields fields = new Fields("aBoolean", "anInt", "aLong", "aDouble", "aFloat", "aNull", "aString");
+        for(long i = 0; i < 1000; i++) {
+            write(scheme, collector, new TupleEntry(fields, new Tuple(false, 1, 1000 - i, 3.0, 4.0F, null, "value-" + i % 3)));
+        }
+        collector.close();
+
+        // every run of buffered records is sorted by the string, then the long
+        final TupleEntryIterator iterator = lfs.openForRead(new JobConf());
+        for(int run = 0; run < 10; run++) {
+            String previousString = null;
+            long previousLong = 0;
+            for(int i = 0; i < 100; i++) {
+                assertTrue(iterator.hasNext());
+                final TupleEntry entry = iterator.next();
+                final String string = entry.getString("aString");
+                final long value = entry.getLong("aLong");
+                if(previousString != null) {
+                    final int order = previousString.compareTo(string);
+                    assertTrue(order < 0 || order == 0 && previousLong < value);
+                }
+                previousString = string;
+                previousLong = value;
+            }
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSortFieldMissing() throws Exception {
+        final Schema schema = new Schema.Parser().parse(getClass().getResourceAsStream("test2.avsc"));
+        new AvroScheme(schema).setSortFields(new Fields("missing"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSortBufferMemoryTooLarge() throws Exception {
+        final Schema schema = new Schema.Parser().parse(getClass().getResourceAsStream("test2.avsc"));
+        new AvroScheme(schema).setSortBufferMemory(AvroSchemeOutputFormat.MAX_SORT_BUFFER_MEMORY + 1);
+    }
+
+    @Test
+    public void testSinkConfigOverrides() throws Exception {
+        final JobConf conf = new JobConf();
+        conf.set(AvroSinkConfig.CODEC, DataFileConstants.DEFLATE_CODEC);
+        conf.setInt(AvroSinkConfig.LEVEL, 9);
+        new AvroSinkConfig(DataFileConstants.SNAPPY_CODEC, 1, 4096).configure(conf);
+
+        assertEquals(DataFileConstants.DEFLATE_CODEC, conf.get(AvroJob.OUTPUT_CODEC));
+        assertEquals(9, conf.getInt(AvroOutputFormat.DEFLATE_LEVEL_KEY, 0));
+        assertEquals(4096, conf.getInt(AvroOutputFormat.SYNC_INTERVAL_KEY, 0));
+        assertEquals(0, conf.getInt(AvroSinkConfig.COMPRESSION_THREADS, -1));
+        assertEquals(0L, conf.getLong(AvroSinkConfig.MAX_FILE_SIZE, -1));
+    }
+
+    @Test
+    public void testPredicate() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test1.avsc"));
+        final AvroScheme scheme = new AvroScheme(schema);
+
+        final Lfs lfs = new Lfs(scheme, tempDir.getRoot().toString());
+        final TupleEntryCollector collector = lfs.openForWrite(new JobConf());
+        final Fields fields = new Fields("aBoolean", "anInt", "aLong", "aDouble", "aFloat", "aBytes", "aFixed", "aNull", "aString");
+        write(scheme, collector, new TupleEntry(fields, new Tuple(false, 1, 2L, 3.0, 4.0F, new BytesWritable(new byte[] {1, 2, 3}),
+                new BytesWritable(new byte[16]), null, "click")));
+        write(scheme, collector, new TupleEntry(fields, new Tuple(true, 5, 6L, 7.0, 8.0F, new BytesWritable(new byte[] {4}),
+                new BytesWritable(new byte[16]), null, "view")));
+        write(scheme, collector, new TupleEntry(fields, new Tuple(true, 9, 10L, 11.0, 12.0F, new BytesWritable(new byte[] {5}),
+                new BytesWritable(new byte[16]), null, null)));
+        collector.close();
+
+        // predicate uses a field outside of the projection
+        final AvroScheme filtered = new AvroScheme(schema, new Fields("aLong"));
+        filtered.setPredicate(AvroPredicate.or(AvroPredicate.eq("aString", "view"), AvroPredicate.isNull("aString")));
+
+        final TupleEntryIterator iterator = new Lfs(filtered, tempDir.getRoot().toString()).openForRead(new JobConf());
+        assertTrue(iterator.hasNext());
+        final TupleEntry readEntry1 = iterator.next();
+        assertEquals(1, readEntry1.getTuple().size());
+        assertEquals(6L, readEntry1.getLong("aLong"));
+
+        assertTrue(iterator.hasNext());
+        assertEquals(10L, iterator.next().getLong("aLong"));
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testBlockIndex() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test2.avsc"));
+        final AvroScheme scheme = new AvroScheme(schema);
+        scheme.setIndexFields(new Fields("aLong", "aString"));
+        // small blocks of a few records each
+        scheme.setSinkConfig(new AvroSinkConfig(DataFileConstants.DEFLATE_CODEC, 6, 64));
+
+        final Lfs lfs = new Lfs(scheme, tempDir.getRoot().toString());
+        final TupleEntryCollector collector = lfs.openForWrite(new JobConf());
+        final Fields fields = new Fields("aBoolean", "anInt", "aLong", "aDouble", "aFloat", "aNull", "aString");
+        for(long i = 0; i < 2000; i++) {
+            write(scheme, collector, new TupleEntry(fields, new Tuple(false, 1, i, 3.0, 4.0F, null, i % 2 == 0 ? "even" : null)));
+        }
+        collector.close();
+        final File part = new File(tempDir.getRoot(), "part-00000" + AvroOutputFormat.EXT);
+        assertTrue(new File(tempDir.getRoot(), "." + part.getName() + ".index").exists());
+
+        final AvroPredicate predicate = AvroPredicate.and(AvroPredicate.ge("aLong", 1990L), AvroPredicate.notNull("aString"));
+        final AvroScheme filtered = new AvroScheme(schema, new Fields("aLong"));
+        filtered.setPredicate(predicate);
+        final TupleEntryIterator iterator = new Lfs(filtered, tempDir.getRoot().toString()).openForRead(new JobConf());
+        for(long i = 1990; i < 2000; i += 2) {
+            assertTrue(iterator.hasNext());
+            assertEquals(i, iterator.next().getLong("aLong"));
+        }
+        assertFalse(iterator.hasNext());
+
+        // without the record filter, only records of matching blocks are read
+        final JobConf conf = new JobConf();
+        conf.set(AvroJob.INPUT_SCHEMA, schema.toString());
+        ConfSerialization.set(conf, AvroSchemeInputFormat.PREDICATE, predicate);
+        final AvroSchemeRecordReader reader = new AvroSchemeRecordReader(conf,
+                new FileSplit(new Path(part.toString()), 0, part.length(), (String[])null));
+        final AvroWrapper<IndexedRecord> key = reader.createKey();
+        int read = 0;
+        while(reader.next(key, NullWritable.get())) {
+            assertTrue((Long)key.datum().get(2) >= 1900L);
+            read++;
+        }
+        reader.close();
+        assertTrue(read >= 10 && read < 100);
+    }
+
+    @Test
+    public void testReadAhead() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test2.avsc"));
+        final AvroScheme scheme = new AvroScheme(schema);
+        scheme.setIndexFields(new Fields("aLong"));
+        scheme.setSinkConfig(new AvroSinkConfig(DataFileConstants.DEFLATE_CODEC, 6, 64));
+
+        final Lfs lfs = new Lfs(scheme, tempDir.getRoot().toString());
+        final TupleEntryCollector collector = lfs.openForWrite(new JobConf());
+        final Fields fields = new Fields("aBoolean", "anInt", "aLong", "aDouble", "aFloat", "aNull", "aString");
+        for(long i = 0; i < 2000; i++) {
+            write(scheme, collector, new TupleEntry(fields, new Tuple(false, 1, i, 3.0, 4.0F, null, "value-" + i)));
+        }
+        collector.close();
+
+        final AvroScheme readAhead = new AvroScheme(schema);
+        readAhead.setReadAhead(4);
+        // smaller than a few blocks, so reading waits for blocks to be decoded
+        readAhead.setReadAheadMemory(1024);
+        final TupleEntryIterator iterator = new Lfs(readAhead, tempDir.getRoot().toString()).openForRead(new JobConf());
+        for(long i = 0; i < 2000; i++) {
+            assertTrue(iterator.hasNext());
+            final TupleEntry entry = iterator.next();
+            assertEquals(i, entry.getLong("aLong"));
+            assertEquals("value-" + i, entry.get("aString"));
+        }
+        assertFalse(iterator.hasNext());
+
+        // skipped blocks restart reading ahead at the next matching block
+        readAhead.setPredicate(AvroPredicate.or(AvroPredicate.lt("aLong", 5L), AvroPredicate.ge("aLong", 1995L)));
+        final TupleEntryIterator filtered = new Lfs(readAhead, tempDir.getRoot().toString()).openForRead(new JobConf());
+        for(long i : new long[] {0, 1, 2, 3, 4, 1995, 1996, 1997, 1998, 1999}) {
+            assertTrue(filtered.hasNext());
+            assertEquals(i, filtered.next().getLong("aLong"));
+        }
+        assertFalse(filtered.hasNext());
+    }
+
+    @Test
+    public void testReadAheadKeepsThreadAndStream() throws Exception {
+        final Schema schema = new Schema.Parser().parse(
+                "{\"type\":\"record\",\"name\":\"R\",\"fields\":[{\"name\":\"l\",\"type\":\"long\"}]}");
+        final File file = new File(tempDir.getRoot(), "skipped.avro");
+        final DataFileWriter<IndexedRecord> writer =
+                new DataFileWriter<IndexedRecord>(new GenericDatumWriter<IndexedRecord>(schema));
+        writer.setCodec(CodecFactory.deflateCodec(6));
+        writer.setSyncInterval(64);
+        writer.create(schema, file);
+        final GenericData.Record record = new GenericData.Record(schema);
+        for(long i = 0; i < 2000; i++) {
+            record.put(0, i);
+            writer.append(record);
+        }
+        writer.close();
+
+        final JobConf conf = new JobConf();
+        conf.setClass("fs.counting.impl", CountingFileSystem.class, FileSystem.class);
+        final FileReader<IndexedRecord> reader = ReadAheadReader.open(conf,
+                new Path("counting", null, file.getAbsolutePath()), new GenericDatumReader<IndexedRecord>(schema),
+                file.length(), 4, 1024);
+        long previous = (Long)reader.next().get(0);
+        final int opened = CountingFileSystem.OPENED.get();
+        final Set<Thread> threads = readAheadThreads(file);
+        assertEquals(1, threads.size());
+        for(int i = 1; i < 10; i++) {
+            reader.sync(file.length() * i / 10);
+            final long value = (Long)reader.next().get(0);
+            assertTrue(value > previous);
+            previous = value;
+        }
+        assertEquals(opened, CountingFileSystem.OPENED.get());
+        assertEquals(threads, readAheadThreads(file));
+
+        long read = 0;
+        while(reader.hasNext()) {
+            assertEquals(++previous, reader.next().get(0));
+            read++;
+        }
+        assertTrue(read > 0);
+        assertEquals(1999L, previous);
+        reader.close();
+        assertTrue(readAheadThreads(file).isEmpty());
+    }
+
+    private static Set<Thread> readAheadThreads(File file) {
+        final Set<Thread> result = new HashSet<Thread>();
+        for(Thread thread : Thread.getAllStackTraces().keySet()) {
+            if(thread.isAlive() && thread.getName().equals("avro-read-ahead " + file.getName())) {
+                result.add(thread);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Local file system counting opened streams
+     */
+    public static class CountingFileSystem extends RawLocalFileSystem {
+        static final AtomicInteger OPENED = new AtomicInteger();
+
+        @Override
+        public URI getUri() {
+            return URI.create("counting:///");
+        }
+
+        @Override
+        public FSDataInputStream open(Path f, int bufferSize) throws IOException {
+            OPENED.incrementAndGet();
+            return super.open(f, bufferSize);
+        }
+    }
+
+    @Test
+    public void testCombineSplits() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test2.avsc"));
+        final AvroScheme scheme = new AvroScheme(schema);
+        scheme.setCombineSplitSize(1024 * 1024);
+
+        final Lfs lfs = new Lfs(scheme, tempDir.getRoot().toString());
+        final TupleEntryCollector collector = lfs.openForWrite(new JobConf());
+        final Fields fields = new Fields("aBoolean", "anInt", "aLong", "aDouble", "aFloat", "aNull", "aString");
+        write(scheme, collector, new TupleEntry(fields, new Tuple(false, 1, 2L, 3.0, 4.0F, null, "test-string")));
+        collector.close();
+
+        // make several small files out of the single part file
+        final File[] parts = tempDir.getRoot().listFiles();
+        for(File part : parts) {
+            if(part.getName().endsWith(".avro")) {
+                for(int i = 1; i <= 3; i++) {
+                    copy(part, new File(tempDir.getRoot(), "copy-" + i + ".avro"));
+                }
+            }
+        }
+
+        final JobConf conf = new JobConf();
+        scheme.sourceInit(lfs, conf);
+        FileInputFormat.setInputPaths(conf, new Path(tempDir.getRoot().toString()));
+        assertEquals(1, conf.getInputFormat().getSplits(conf, 4).length);
+
+        final TupleEntryIterator iterator = lfs.openForRead(new JobConf());
+        int count = 0;
+        while(iterator.hasNext()) {
+            assertEquals("test-string", iterator.next().get("aString"));
+            count++;
+        }
+        assertEquals(4, count);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPredicateUnknownField() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test1.avsc"));
+        new AvroScheme(schema).setPredicate(AvroPredicate.eq("notThere", 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testProjectionUnknownField() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test1.avsc"));
+        new AvroScheme(schema, new Fields("aString", "notThere"));
+    }
+
+    private void copy(File from, File to) throws IOException {
+        IOUtils.copyBytes(new FileInputStream(from), new FileOutputStream(to), 4096, true);
+    }
+
     private void write(AvroScheme scheme, TupleEntryCollector collector, TupleEntry te) {
         collector.add(te.selectTuple(scheme.getSinkFields()));
     }
 
+    @Test
+    public void testMetrics() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test1.avsc"));
+        final AvroScheme scheme = new AvroScheme(schema);
+        scheme.setMetrics(true);
+
+        final Lfs lfs = new Lfs(scheme, tempDir.getRoot().toString());
+        final TupleEntryCollector collector = lfs.openForWrite(new JobConf());
+        final Fields fields = new Fields("aBoolean", "anInt", "aLong", "aDouble", "aFloat", "aBytes", "aFixed", "aNull", "aString");
+        write(scheme, collector, new TupleEntry(fields, new Tuple(false, 1, 2L, 3.0, 4.0F, new BytesWritable(new byte[] {1, 2, 3}),
+                new BytesWritable(new byte[16]), null, "click")));
+        write(scheme, collector, new TupleEntry(fields, new Tuple(true, 5, 6L, 7.0, 8.0F, new BytesWritable(new byte[] {4}),
+                new BytesWritable(new byte[16]), null, null)));
+        collector.close();
+
+        final TupleEntryIterator iterator = lfs.openForRead(new JobConf());
+        assertTrue(iterator.hasNext());
+        assertEquals("click", iterator.next().getString("aString"));
+        assertTrue(iterator.hasNext());
+        assertNull(iterator.next().get("aString"));
+        assertFalse(iterator.hasNext());
+
+        // read again through the metered input format with a reporter, schemes pick up metrics of their task
+        final AvroScheme metered = new AvroScheme(schema);
+        metered.setMetrics(true);
+        final JobConf conf = new JobConf();
+        metered.sourceInit(lfs, conf);
+        FileInputFormat.setInputPaths(conf, new Path(tempDir.getRoot().toString()));
+        final RecordingReporter reporter = new RecordingReporter();
+        final InputFormat<AvroWrapper<IndexedRecord>, NullWritable> inputFormat =
+                new MeteredInputFormat<AvroWrapper<IndexedRecord>, NullWritable>();
+        final RecordReader<AvroWrapper<IndexedRecord>, NullWritable> reader =
+                inputFormat.getRecordReader(inputFormat.getSplits(conf, 1)[0], conf, reporter);
+        final AvroWrapper<IndexedRecord> key = reader.createKey();
+        while(reader.next(key, reader.createValue())) {
+            metered.source(key, null);
+        }
+        reader.close();
+
+        assertEquals(2L, reporter.get(AvroCounters.RECORDS_READ.name()));
+        assertTrue(reporter.get(AvroCounters.BYTES_READ.name()) > 0);
+        assertEquals(2L, reporter.get("NULLS_READ_aNull"));
+        assertEquals(1L, reporter.get("NULLS_READ_aString"));
+        assertEquals(0L, reporter.get("NULLS_READ_aLong"));
+    }
+
+    @Test
+    public void testInternFields() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test1.avsc"));
+        final AvroScheme scheme = new AvroScheme(schema);
+
+        final Lfs lfs = new Lfs(scheme, tempDir.getRoot().toString());
+        final TupleEntryCollector collector = lfs.openForWrite(new JobConf());
+        final Fields fields = new Fields("aBoolean", "anInt", "aLong", "aDouble", "aFloat", "aBytes", "aFixed", "aNull", "aString");
+        for(String value : new String[] {"click", "view", "click", "skip", "click"}) {
+            write(scheme, collector, new TupleEntry(fields, new Tuple(false, 1, 2L, 3.0, 4.0F, new BytesWritable(new byte[0]),
+                    new BytesWritable(new byte[16]), null, value)));
+        }
+        collector.close();
+
+        final AvroScheme interned = new AvroScheme(schema);
+        interned.setMetrics(true);
+        interned.setInternFields(new Fields("aString"));
+        interned.setInternLimit(2);
+        final JobConf conf = new JobConf();
+        interned.sourceInit(lfs, conf);
+        FileInputFormat.setInputPaths(conf, new Path(tempDir.getRoot().toString()));
+        final RecordingReporter reporter = new RecordingReporter();
+        final InputFormat<AvroWrapper<IndexedRecord>, NullWritable> inputFormat =
+                new MeteredInputFormat<AvroWrapper<IndexedRecord>, NullWritable>();
+        final RecordReader<AvroWrapper<IndexedRecord>, NullWritable> reader =
+                inputFormat.getRecordReader(inputFormat.getSplits(conf, 1)[0], conf, reporter);
+        final AvroWrapper<IndexedRecord> key = reader.createKey();
+        final Object[] values = new Object[5];
+        for(int i = 0; reader.next(key, reader.createValue()); i++) {
+            values[i] = interned.source(key, null).getObject(8);
+        }
+        reader.close();
+
+        assertEquals("click", values[0]);
+        assertTrue(values[0] == values[2]);
+        // a third distinct value exceeds the limit, later values are decoded again
+        assertEquals("click", values[4]);
+        assertFalse(values[0] == values[4]);
+        assertEquals(1L, reporter.get(AvroCounters.INTERN_HITS.name()));
+        assertEquals(4L, reporter.get(AvroCounters.INTERN_MISSES.name()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInternNonStringField() throws Exception {
+        final Schema schema = new Schema.Parser().parse(getClass().getResourceAsStream("test1.avsc"));
+        new AvroScheme(schema).setInternFields(new Fields("aLong"));
+    }
+
+    @Test
+    public void testWriterSchemaResolution() throws Exception {
+        // each version is parsed separately, a parser doesn't allow redefining a name
+        final Schema v1 = new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"event\", \"fields\": ["
+                + "{\"name\": \"id\", \"type\": \"long\"}, {\"name\": \"name\", \"type\": \"string\"}]}");
+        final Schema v2 = new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"event\", \"fields\": ["
+                + "{\"name\": \"removed\", \"type\": \"int\"}, {\"name\": \"name\", \"type\": \"string\"},"
+                + "{\"name\": \"id\", \"type\": \"long\"}]}");
+        final Schema current = new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"event\", \"fields\": ["
+                + "{\"name\": \"id\", \"type\": \"long\"}, {\"name\": \"name\", \"type\": \"string\"},"
+                + "{\"name\": \"count\", \"type\": \"int\", \"default\": 1}]}");
+
+        // a directory mixing files written with different versions of the schema
+        for(int i = 0; i < 4; i++) {
+            final Schema schema = i % 2 == 0 ? v1 : v2;
+            final DataFileWriter<IndexedRecord> writer =
+                    new DataFileWriter<IndexedRecord>(new GenericDatumWriter<IndexedRecord>(schema));
+            writer.create(schema, new File(tempDir.getRoot(), "part-" + i + ".avro"));
+            final GenericData.Record record = new GenericData.Record(schema);
+            record.put("id", (long)i);
+            record.put("name", "event" + i);
+            if(schema == v2) {
+                record.put("removed", 0);
+            }
+            writer.append(record);
+            writer.close();
+        }
+
+        final AvroScheme scheme = new AvroScheme(current);
+        final TupleEntryIterator iterator = new Lfs(scheme, tempDir.getRoot().toString()).openForRead(new JobConf());
+        final Set<Long> ids = new HashSet<Long>();
+        while(iterator.hasNext()) {
+            final TupleEntry entry = iterator.next();
+            final long id = entry.getLong("id");
+            assertEquals("event" + id, entry.getString("name"));
+            assertEquals(1, entry.getInteger("count"));
+            ids.add(id);
+        }
+        assertEquals(4, ids.size());
+
+        // equal schemas share a single instance
+        assertTrue(SchemaCache.intern(new Schema.Parser().parse(v2.toString()))
+                == SchemaCache.intern(new Schema.Parser().parse(v2.toString())));
+    }
+
     @Test
     public void testSerialization() throws Exception {
         final Schema.Parser parser = new Schema.Parser();
         final Schema schema = parser.parse(getClass().getResourceAsStream("test1.avsc"));
         final AvroScheme expected = new AvroScheme(schema);
+        expected.setSinkConfig(new AvroSinkConfig().setCodec(DataFileConstants.SNAPPY_CODEC));
+        expected.setMetrics(true);
+        expected.setIndexFields(new Fields("aLong"));
+        expected.setLazyStrings(true);
+        expected.setInternFields(new Fields("aString"));
+        expected.setReadAhead(2);
+        expected.setSortFields(new Fields("aLong"));
+        expected.setSortBufferSize(10);
 
         final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
         ObjectOutputStream oos = new ObjectOutputStream(bytes);
@@ -96,5 +949,82 @@ public class AvroSchemeTest {
         final AvroScheme actual = (AvroScheme)iis.readObject();
 
         assertEquals(expected, actual);
+        assertEquals(expected.getSinkConfig(), actual.getSinkConfig());
+        assertTrue(actual.isMetrics());
+        assertEquals(new Fields("aLong"), actual.getIndexFields());
+        assertTrue(actual.isLazyStrings());
+        assertEquals(new Fields("aString"), actual.getInternFields());
+        assertEquals(2, actual.getReadAhead());
+        assertEquals(new Fields("aLong"), actual.getSortFields());
+        assertEquals(10, actual.getSortBufferSize());
+    }
+
+    @Test
+    public void testSerializationSharesSchemas() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test1.avsc"));
+        final AvroScheme full = new AvroScheme(schema);
+        final AvroScheme projected = new AvroScheme(schema, new Fields("aLong", "aString"));
+        projected.setPartitionFields(new Fields("dt"));
+
+        final ByteArrayOutputStream single = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(single);
+        oos.writeObject(full);
+        oos.close();
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        oos = new ObjectOutputStream(bytes);
+        oos.writeObject(full);
+        oos.writeObject(new AvroScheme(new Schema.Parser().parse(getClass().getResourceAsStream("test1.avsc"))));
+        oos.writeObject(projected);
+        oos.close();
+        // the schema of the second scheme refers back to the first one
+        assertTrue(bytes.size() < 2 * single.size());
+
+        final ObjectInputStream iis = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(full, iis.readObject());
+        assertEquals(full, iis.readObject());
+        final AvroScheme actual = (AvroScheme)iis.readObject();
+        assertEquals(new Fields("aLong", "aString", "dt"), actual.getSourceFields());
+        assertEquals(new Fields("dt"), actual.getPartitionFields());
+    }
+
+    /**
+     * Keeps values of counters by name
+     */
+    static class RecordingReporter implements Reporter {
+        private final Map<String, Long> counters = new HashMap<String, Long>();
+
+        long get(String name) {
+            final Long value = counters.get(name);
+            return value == null ? 0 : value;
+        }
+
+        public void incrCounter(Enum<?> key, long amount) {
+            incrCounter(key.getDeclaringClass().getName(), key.name(), amount);
+        }
+
+        public void incrCounter(String group, String counter, long amount) {
+            assertEquals(AvroCounters.class.getName(), group);
+            counters.put(counter, get(counter) + amount);
+        }
+
+        public Counters.Counter getCounter(Enum<?> name) {
+            return null;
+        }
+
+        public Counters.Counter getCounter(String group, String name) {
+            return null;
+        }
+
+        public InputSplit getInputSplit() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void setStatus(String status) {
+        }
+
+        public void progress() {
+        }
     }
 }
@@ -0,0 +1,94 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.maxpoint.cascading.avro;
+
+import cascading.tap.Lfs;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryIterator;
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.mapred.AvroWrapper;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class RenamerSchemeTest {
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Test
+    public void testSinkRenamedFields() throws Exception {
+        final Schema schema = new Schema.Parser().parse(getClass().getResourceAsStream("test2.avsc"));
+        final AvroScheme scheme = new AvroScheme(schema);
+        final RenamerScheme renamer = new RenamerScheme(scheme,
+                new Fields("b", "i", "l", "f", "d", "s", "n"),
+                new Fields("aBoolean", "anInt", "aLong", "aFloat", "aDouble", "aString", "aNull"));
+
+        final DataFileWriter<IndexedRecord> writer = new DataFileWriter<IndexedRecord>(
+                new GenericDatumWriter<IndexedRecord>(schema));
+        writer.create(schema, new File(tempDir.getRoot(), "part-00000.avro"));
+        final OutputCollector collector = new OutputCollector() {
+            @SuppressWarnings("unchecked")
+            public void collect(Object key, Object value) throws IOException {
+                writer.append(((AvroWrapper<IndexedRecord>)key).datum());
+            }
+        };
+
+        // same fields in order are passed as they are
+        final Fields inOrder = new Fields("b", "i", "l", "f", "d", "s", "n");
+        renamer.sink(new TupleEntry(inOrder, new Tuple(false, 1, 2L, 3.0F, 4.0, "first", null)), collector);
+        // reordered fields with an extra one are copied into the reused tuple
+        final Fields reordered = new Fields("s", "extra", "n", "d", "f", "l", "i", "b");
+        renamer.sink(new TupleEntry(reordered, new Tuple("second", "ignored", null, 5.0, 6.0F, 7L, 8, true)), collector);
+        renamer.sink(new TupleEntry(reordered, new Tuple(null, "ignored", null, 9.0, 10.0F, 11L, 12, false)), collector);
+        // positions are resolved again once the incoming fields change back
+        renamer.sink(new TupleEntry(new Fields("b", "i", "l", "f", "d", "s", "n"),
+                new Tuple(true, 13, 14L, 15.0F, 16.0, "fourth", null)), collector);
+        writer.close();
+
+        final TupleEntryIterator iterator = new Lfs(new AvroScheme(schema), tempDir.getRoot().toString())
+                .openForRead(new JobConf());
+        assertEntry(iterator.next(), false, 1, 2L, 3.0F, 4.0, "first");
+        assertEntry(iterator.next(), true, 8, 7L, 6.0F, 5.0, "second");
+        assertEntry(iterator.next(), false, 12, 11L, 10.0F, 9.0, null);
+        assertEntry(iterator.next(), true, 13, 14L, 15.0F, 16.0, "fourth");
+        assertFalse(iterator.hasNext());
+    }
+
+    private static void assertEntry(TupleEntry entry, boolean aBoolean, int anInt, long aLong, float aFloat,
+                                    double aDouble, String aString) {
+        assertEquals(aBoolean, entry.getBoolean("aBoolean"));
+        assertEquals(anInt, entry.getInteger("anInt"));
+        assertEquals(aLong, entry.getLong("aLong"));
+        assertEquals(aFloat, entry.getFloat("aFloat"), 0.0F);
+        assertEquals(aDouble, entry.getDouble("aDouble"), 0.0);
+        assertEquals(aString, entry.get("aString"));
+        assertNull(entry.get("aNull"));
+    }
+}
@@ -0,0 +1,42 @@
+package com.maxpoint.cascading.avro;
+
+import cascading.tuple.Tuple;
+import com.maxpoint.cascading.avro.AvroTupleConverter;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.IndexedRecord;
+
+public class Test1Converter extends AvroTupleConverter {
+    public static final Schema SCHEMA = new Schema.Parser().parse("{\"type\":\"record\",\"name\":\"Test1\",\"namespace\":\"com.maxpoint.cascading.avro\",\"fields\":[{\"name\":\"aBoolean\",\"type\":\"boolean\",\"default\":true},{\"name\":\"anInt\",\"type\":\"int\",\"default\":123},{\"name\":\"aLong\",\"type\":\"long\",\"default\":1},{\"name\":\"aFloat\",\"type\":\"float\",\"default\":0.1},{\"name\":\"aDouble\",\"type\":\"double\",\"default\":110.1},{\"name\":\"aString\",\"type\":[\"string\",\"null\"],\"default\":\"foobar\"},{\"name\":\"aBytes\",\"type\":\"bytes\"},{\"name\":\"aFixed\",\"type\":{\"type\":\"fixed\",\"name\":\"md5\",\"size\":16}},{\"name\":\"aNull\",\"type\":\"null\",\"doc\":\"I'm always null\"}]}");
+    private final GenericData.Fixed fixed7 = new GenericData.Fixed(fixedSchema(SCHEMA, 7));
+
+    public Test1Converter() {
+        super(SCHEMA);
+    }
+
+    @Override
+    public void fromAvro(IndexedRecord record, Tuple tuple) {
+        tuple.set(0, record.get(0));
+        tuple.set(1, record.get(1));
+        tuple.set(2, record.get(2));
+        tuple.set(3, record.get(3));
+        tuple.set(4, record.get(4));
+        tuple.set(5, record.get(5) == null ? null : record.get(5).toString());
+        tuple.set(6, fromBytes(record, 6));
+        tuple.set(7, fromFixed(record, 7));
+        tuple.set(8, record.get(8));
+    }
+
+    @Override
+    public void toAvro(Tuple tuple, IndexedRecord record) {
+        record.put(0, notNull(0, tuple.getObject(0)));
+        record.put(1, toInt(notNull(1, tuple.getObject(1))));
+        record.put(2, toLong(notNull(2, tuple.getObject(2))));
+        record.put(3, toFloat(notNull(3, tuple.getObject(3))));
+        record.put(4, toDouble(notNull(4, tuple.getObject(4))));
+        record.put(5, tuple.getObject(5) == null ? null : tuple.getObject(5).toString());
+        record.put(6, toBytes(notNull(6, tuple.getObject(6))));
+        record.put(7, toFixed(fixed7, notNull(7, tuple.getObject(7))));
+        record.put(8, null);
+    }
+}
@@ -24,7 +24,10 @@ import cascading.tuple.TupleEntryCollector;
 import cascading.tuple.TupleEntryIterator;
 import org.apache.avro.Schema;
 import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -70,6 +73,111 @@ public class TextSchemeTest {
         assertNull(readEntry2.get("aString"));
     }
 
+    @Test
+    public void testFastParsing() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test2.avsc"));
+        final TextScheme generic = new TextScheme(schema, ",", "\"");
+        final TextScheme fast = new TextScheme(schema, ",", "\"");
+        fast.setFastParsing(true);
+
+        final String[] lines = {
+                "false,1,2,3.0,4.0,test-string,",
+                "TRUE,-12,9223372036854775807,-2.5,0.1,\"quoted, with \"\"escapes\"\"\",",
+                "true,2147483647,-9,3.4028235E38,1e3,\"\",",
+                "false,0012,1,7.,.5,caf\u00e9,",
+                "yes,1,2,3,4,\"last,field\",with,extra,delimiters",
+                // values the fast parser doesn't handle itself
+                "true,7,2, 2.5,NaN,x,",
+        };
+        for(String line : lines) {
+            final Text text = new Text(line);
+            final LongWritable offset = new LongWritable(0);
+            assertEquals(line, generic.source(offset, text), fast.source(offset, text));
+        }
+    }
+
+    @Test
+    public void testFastFormatting() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test2.avsc"));
+        final TextScheme generic = new TextScheme(schema, ",", "\"");
+        final TextScheme fast = new TextScheme(schema, ",", "\"");
+        fast.setFastFormatting(true);
+
+        final Fields fields = new Fields("aBoolean", "anInt", "aLong", "aDouble", "aFloat", "aNull", "aString");
+        final Tuple[] tuples = {
+                new Tuple(false, 1, 2L, 3.0, 4.0F, null, "test-string"),
+                new Tuple(true, Integer.MIN_VALUE, Long.MIN_VALUE, 1e100, -0.5F, null, "quoted, with \"escapes\""),
+                new Tuple(true, -7, 0L, -0.0, Float.NaN, null, "only \"quotes\""),
+                new Tuple(false, 0, Long.MAX_VALUE, 0.1, 1e-10F, null, "caf\u00e9 \ud83d\ude00 \ud83d"),
+                new Tuple(null, null, null, null, null, null, null),
+        };
+        for(Tuple tuple : tuples) {
+            final TupleEntry entry = new TupleEntry(fields, tuple);
+            assertEquals(line(generic, entry), line(fast, entry));
+        }
+    }
+
+    private String line(TextScheme scheme, TupleEntry entry) throws Exception {
+        final StringBuilder result = new StringBuilder();
+        scheme.sink(entry, new OutputCollector<Object, Object>() {
+            public void collect(Object key, Object value) {
+                result.append(value.toString());
+            }
+        });
+        return result.toString();
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test2.avsc"));
+        final TextScheme scheme = new TextScheme(schema, ",", "\"");
+        scheme.setMetrics(true);
+        assertMetrics(scheme);
+    }
+
+    @Test
+    public void testFastFormattingMetrics() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test2.avsc"));
+        final TextScheme scheme = new TextScheme(schema, ",", "\"");
+        scheme.setMetrics(true);
+        scheme.setFastFormatting(true);
+        assertMetrics(scheme);
+    }
+
+    /**
+     * Sinks lines with a registered reporter and checks that encoded bytes match the lines and their terminators
+     */
+    private void assertMetrics(TextScheme scheme) throws Exception {
+        final AvroSchemeTest.RecordingReporter reporter = new AvroSchemeTest.RecordingReporter();
+        final AvroMetrics metrics = AvroMetrics.register(new JobConf(), reporter);
+        final StringBuilder lines = new StringBuilder();
+        final OutputCollector<Object, Object> collector = new OutputCollector<Object, Object>() {
+            public void collect(Object key, Object value) {
+                lines.append(value.toString()).append('\n');
+            }
+        };
+        final Fields fields = new Fields("aBoolean", "anInt", "aLong", "aDouble", "aFloat", "aNull", "aString");
+        scheme.sink(new TupleEntry(fields, new Tuple(false, 1, 2L, 3.0, 4.0F, null, "caf\u00e9 \ud83d\ude00")), collector);
+        scheme.sink(new TupleEntry(fields, new Tuple(true, 5, 6L, 7.0, 8.0F, null, null)), collector);
+        metrics.close();
+
+        assertTrue(lines.length() > 0);
+        assertEquals(lines.toString().getBytes("UTF-8").length, reporter.get(AvroCounters.BYTES_ENCODED.name()));
+        assertEquals(2L, reporter.get("NULLS_WRITTEN_aNull"));
+        assertEquals(1L, reporter.get("NULLS_WRITTEN_aString"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFastParsingQuote() throws Exception {
+        final Schema.Parser parser = new Schema.Parser();
+        final Schema schema = parser.parse(getClass().getResourceAsStream("test2.avsc"));
+        new TextScheme(schema, "\t", "''").setFastParsing(true);
+    }
+
     private void write(Scheme scheme, TupleEntryCollector collector, TupleEntry te) {
         collector.add(te.selectTuple(scheme.getSinkFields()));
     }